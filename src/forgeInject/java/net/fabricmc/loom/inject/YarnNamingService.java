@@ -30,19 +30,21 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
 import java.util.function.BiFunction;
-import java.util.function.Predicate;
 
 import cpw.mods.modlauncher.api.INameMappingService;
 
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
 
 public class YarnNamingService implements INameMappingService {
 	private static final String PATH_TO_MAPPINGS = "fabric.yarnWithSrg.path";
-	private TinyTree mappings = null;
+	private volatile Lookup lookup = null;
 
 	@Override
 	public String mappingName() {
@@ -64,64 +66,76 @@ public class YarnNamingService implements INameMappingService {
 		return this::remap;
 	}
 
-	private TinyTree getMappings() {
-		if (mappings != null) {
-			return mappings;
+	private Lookup getLookup() {
+		Lookup lookup = this.lookup;
+
+		if (lookup != null) {
+			return lookup;
+		}
+
+		synchronized (this) {
+			if (this.lookup == null) {
+				this.lookup = new Lookup(readMappings());
+			}
+
+			return this.lookup;
 		}
+	}
 
+	private static TinyTree readMappings() {
 		String pathStr = System.getProperty(PATH_TO_MAPPINGS);
 		if (pathStr == null) throw new RuntimeException("Missing system property '" + PATH_TO_MAPPINGS + "'!");
 		Path path = Paths.get(pathStr);
 
 		try (BufferedReader reader = Files.newBufferedReader(path)) {
-			mappings = TinyMappingFactory.loadWithDetection(reader);
+			return TinyMappingFactory.loadWithDetection(reader);
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
-
-		return mappings;
 	}
 
 	private String remap(Domain domain, String name) {
-		TinyTree mappings = getMappings();
+		Lookup lookup = getLookup();
 
 		switch (domain) {
 		case CLASS:
 			boolean dot = name.contains(".");
-			return find(mappings.getClasses(), def -> maybeReplace(dot, def.getName("srg"), '/', '.').equals(name))
-					.map(def -> maybeReplace(dot, def.getName("named"), '/', '.'))
-					.orElse(name);
+			String named = lookup.classes.get(maybeReplace(dot, name, '.', '/'));
+			return named != null ? maybeReplace(dot, named, '/', '.') : name;
 		case METHOD:
-			return mappings.getClasses().stream()
-					.flatMap(def -> def.getMethods().stream())
-					.filter(def -> def.getName("srg").equals(name))
-					.findAny()
-					.map(def -> def.getName("named"))
-					.orElse(name);
+			return lookup.methods.getOrDefault(name, name);
 		case FIELD:
-			return mappings.getClasses().stream()
-					.flatMap(def -> def.getFields().stream())
-					.filter(def -> def.getName("srg").equals(name))
-					.findAny()
-					.map(def -> def.getName("named"))
-					.orElse(name);
+			return lookup.fields.getOrDefault(name, name);
 		default:
 			return name;
 		}
 	}
 
-	// From CollectionUtil
-	private static <E> Optional<E> find(Iterable<? extends E> collection, Predicate<? super E> filter) {
-		for (E e : collection) {
-			if (filter.test(e)) {
-				return Optional.of(e);
-			}
-		}
-
-		return Optional.empty();
-	}
-
 	private static String maybeReplace(boolean run, String s, char from, char to) {
 		return run ? s.replace(from, to) : s;
 	}
+
+	/**
+	 * Srg to named lookup tables, built once from the mappings so that
+	 * the naming function doesn't have to scan the whole tree per call.
+	 */
+	private static final class Lookup {
+		final Map<String, String> classes = new HashMap<>();
+		final Map<String, String> methods = new HashMap<>();
+		final Map<String, String> fields = new HashMap<>();
+
+		Lookup(TinyTree mappings) {
+			for (ClassDef classDef : mappings.getClasses()) {
+				classes.putIfAbsent(classDef.getName("srg"), classDef.getName("named"));
+
+				for (MethodDef methodDef : classDef.getMethods()) {
+					methods.putIfAbsent(methodDef.getName("srg"), methodDef.getName("named"));
+				}
+
+				for (FieldDef fieldDef : classDef.getFields()) {
+					fields.putIfAbsent(fieldDef.getName("srg"), fieldDef.getName("named"));
+				}
+			}
+		}
+	}
 }
@@ -79,6 +79,8 @@ public class LoomGradleExtension {
 	public File accessWidener = null;
 	public Function<String, Object> intermediaryUrl = mcVer -> "https://maven.fabricmc.net/net/fabricmc/intermediary/" + mcVer + "/intermediary-" + mcVer + "-v2.jar";
 	public boolean shareCaches = false;
+	public int parallelThreads = 0; // The number of threads used for parallel work, shared by all projects of a build and taken from the root project if it uses Loom. 0 uses all available processors
+	public File decompiledSourcesStore = null; // Where genSources keeps decompiled sources for reuse, can be shared between machines. Defaults to the Gradle user home
 	// TODO: FORGE: Remove this dual mixinConfig system
 	public String mixinConfig = null; // FORGE: Passed to Minecraft
 	public List<String> mixinConfigs = null; // FORGE: Passed to Minecraft
@@ -268,6 +270,26 @@ public class LoomGradleExtension {
 		return remappedModCache;
 	}
 
+	public File getRemappedModStore() {
+		File remappedModStore = new File(getUserCache(), "remapped_mod_store");
+
+		if (!remappedModStore.exists()) {
+			remappedModStore.mkdirs();
+		}
+
+		return remappedModStore;
+	}
+
+	public File getDecompiledSourcesStore() {
+		File store = decompiledSourcesStore != null ? decompiledSourcesStore : new File(getUserCache(), "decompiled_sources_store");
+
+		if (!store.exists()) {
+			store.mkdirs();
+		}
+
+		return store;
+	}
+
 	public File getNestedModCache() {
 		File nestedModCache = new File(getRootProjectPersistentCache(), "nested_mods");
 
@@ -24,6 +24,8 @@
 
 package net.fabricmc.loom;
 
+import java.io.File;
+
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -37,6 +39,8 @@ import net.fabricmc.loom.configuration.ide.IdeConfiguration;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsCache;
 import net.fabricmc.loom.decompilers.DecompilerConfiguration;
 import net.fabricmc.loom.task.LoomTasks;
+import net.fabricmc.loom.util.HashLedger;
+import net.fabricmc.loom.util.RemapClasspath;
 
 public class LoomGradlePlugin implements Plugin<Project> {
 	public static boolean refreshDeps;
@@ -47,6 +51,9 @@ public class LoomGradlePlugin implements Plugin<Project> {
 		project.getLogger().lifecycle("Fabric Loom: " + LoomGradlePlugin.class.getPackage().getImplementationVersion());
 
 		refreshDeps = project.getGradle().getStartParameter().isRefreshDependencies();
+		HashLedger.init(new File(project.getGradle().getGradleUserHomeDir(), "caches" + File.separator + "fabric-loom" + File.separator + "hash_ledger.txt"));
+		project.getGradle().buildFinished(result -> HashLedger.flushPending());
+		RemapClasspath.init(new File(project.getGradle().getGradleUserHomeDir(), "caches" + File.separator + "fabric-loom" + File.separator + "remap_classpath"));
 
 		if (refreshDeps) {
 			MappingsCache.INSTANCE.invalidate();
@@ -0,0 +1,308 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.gradle.api.logging.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+
+import net.fabricmc.loom.LoomGradlePlugin;
+import net.fabricmc.tinyremapper.OutputConsumerPath;
+import net.fabricmc.tinyremapper.TinyRemapper;
+
+/**
+ * Remaps a jar while reusing the output of the previous run for classes that did not change.
+ *
+ * <p>The remapped bytes of a class only depend on its own bytes, the mappings, the classpath and the
+ * hierarchy and member declarations of the other input classes. As long as the latter three are unchanged,
+ * only classes whose bytes changed are remapped; the unchanged ones are put on the classpath so the
+ * hierarchy stays complete, and their previous output is copied over.
+ */
+public class IncrementalJarRemapper {
+	private static final int FORMAT_VERSION = 1;
+
+	private final Path stateDir;
+	private final String environment;
+	private final Logger logger;
+
+	/**
+	 * @param stateDir the directory holding the state of the previous run, usually the task's temporary directory
+	 * @param environment a hash of everything apart from the input jar that the output depends on
+	 */
+	public IncrementalJarRemapper(Path stateDir, String environment, Logger logger) {
+		this.stateDir = stateDir;
+		this.environment = environment;
+		this.logger = logger;
+	}
+
+	private Path getManifestFile() {
+		return stateDir.resolve("remap_state.json");
+	}
+
+	private Path getClassCache() {
+		return stateDir.resolve("remapped_classes.jar");
+	}
+
+	/**
+	 * Remaps {@code input} to {@code output}.
+	 *
+	 * @param beforeFinish called with the remapper once the output has been written, before the remapper is finished
+	 */
+	public void remap(TinyRemapper.Builder remapperBuilder, Path input, Path output, Path[] classpath, Consumer<Remapper> beforeFinish) throws IOException {
+		Map<String, byte[]> inputClasses = readClasses(input);
+		Map<String, String> hashes = new HashMap<>();
+		Hasher structure = Hashing.sha256().newHasher();
+
+		for (Map.Entry<String, byte[]> entry : inputClasses.entrySet()) {
+			hashes.put(entry.getKey(), Hashing.sha256().hashBytes(entry.getValue()).toString());
+			structure.putString(entry.getKey(), StandardCharsets.UTF_8);
+			hashStructure(entry.getValue(), structure);
+		}
+
+		Manifest previous = readManifest(structure.hash().toString());
+		Map<String, byte[]> reused = new HashMap<>();
+		Map<String, byte[]> changed = new TreeMap<>();
+		Map<String, String> outputNames = new HashMap<>();
+
+		if (previous != null) {
+			Map<String, byte[]> cachedClasses = readClasses(getClassCache());
+
+			for (Map.Entry<String, byte[]> entry : inputClasses.entrySet()) {
+				ClassState state = previous.classes.get(entry.getKey());
+				byte[] cached = state != null && state.hash.equals(hashes.get(entry.getKey())) ? cachedClasses.get(state.output) : null;
+
+				if (cached != null) {
+					reused.put(state.output, cached);
+					outputNames.put(entry.getKey(), state.output);
+				} else {
+					changed.put(entry.getKey(), entry.getValue());
+				}
+			}
+
+			logger.info(":incremental remap: {} changed, {} reused", changed.size(), reused.size());
+		}
+
+		// Clear the state first so that a failed remap never leaves a manifest pointing at stale classes
+		Files.deleteIfExists(getManifestFile());
+		Files.createDirectories(stateDir);
+
+		Path remapInput = input;
+		List<Path> remapClasspath = new ArrayList<>(Arrays.asList(classpath));
+
+		if (previous != null) {
+			remapInput = stateDir.resolve("changed_classes.jar");
+			writeClasses(remapInput, changed);
+
+			Map<String, byte[]> unchanged = new HashMap<>(inputClasses);
+			unchanged.keySet().removeAll(changed.keySet());
+			Path unchangedJar = stateDir.resolve("unchanged_classes.jar");
+			writeClasses(unchangedJar, unchanged);
+			remapClasspath.add(unchangedJar);
+		}
+
+		TinyRemapper remapper = remapperBuilder.build();
+		Map<String, byte[]> remapped = new ConcurrentHashMap<>(reused);
+
+		try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
+			outputConsumer.addNonClassFiles(input);
+			reused.forEach(outputConsumer);
+			remapper.readClassPath(remapClasspath.toArray(new Path[0]));
+			remapper.readInputs(remapInput);
+			BiConsumer<String, byte[]> capturingConsumer = (name, bytes) -> {
+				remapped.put(name, bytes);
+				outputConsumer.accept(name, bytes);
+			};
+			remapper.apply(capturingConsumer);
+		} catch (Exception e) {
+			remapper.finish();
+			throw new RuntimeException("Failed to remap " + input + " to " + output, e);
+		}
+
+		try {
+			beforeFinish.accept(remapper.getRemapper());
+
+			for (String name : inputClasses.keySet()) {
+				outputNames.computeIfAbsent(name, remapper.getRemapper()::map);
+			}
+		} finally {
+			remapper.finish();
+		}
+
+		writeClasses(getClassCache(), remapped);
+		writeManifest(structure.hash().toString(), hashes, outputNames);
+	}
+
+	private Manifest readManifest(String structure) {
+		if (!Files.exists(getManifestFile()) || !Files.exists(getClassCache())) {
+			return null;
+		}
+
+		try (Reader reader = Files.newBufferedReader(getManifestFile(), StandardCharsets.UTF_8)) {
+			Manifest manifest = LoomGradlePlugin.GSON.fromJson(reader, Manifest.class);
+
+			if (manifest == null || manifest.version != FORMAT_VERSION || manifest.classes == null
+					|| !environment.equals(manifest.environment) || !structure.equals(manifest.structure)) {
+				logger.info(":class hierarchy or remap environment changed, remapping everything");
+				return null;
+			}
+
+			return manifest;
+		} catch (IOException | RuntimeException e) {
+			logger.info(":could not read incremental remap state, remapping everything", e);
+			return null;
+		}
+	}
+
+	private void writeManifest(String structure, Map<String, String> hashes, Map<String, String> outputNames) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.version = FORMAT_VERSION;
+		manifest.environment = environment;
+		manifest.structure = structure;
+		manifest.classes = new HashMap<>();
+
+		for (Map.Entry<String, String> entry : hashes.entrySet()) {
+			ClassState state = new ClassState();
+			state.hash = entry.getValue();
+			state.output = outputNames.get(entry.getKey());
+			manifest.classes.put(entry.getKey(), state);
+		}
+
+		try (Writer writer = Files.newBufferedWriter(getManifestFile(), StandardCharsets.UTF_8)) {
+			LoomGradlePlugin.GSON.toJson(manifest, writer);
+		}
+	}
+
+	/**
+	 * Hashes everything about a class that can change how other classes are remapped:
+	 * its name, access, hierarchy and member declarations, but not method bodies.
+	 */
+	private static void hashStructure(byte[] bytes, Hasher hasher) {
+		new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+			@Override
+			public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+				hasher.putInt(access).putString(name, StandardCharsets.UTF_8).putString(String.valueOf(superName), StandardCharsets.UTF_8);
+
+				if (interfaces != null) {
+					for (String itf : interfaces) {
+						hasher.putString(itf, StandardCharsets.UTF_8);
+					}
+				}
+			}
+
+			@Override
+			public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+				hasher.putChar('F').putInt(access).putString(name, StandardCharsets.UTF_8).putString(descriptor, StandardCharsets.UTF_8);
+				return null;
+			}
+
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				hasher.putChar('M').putInt(access).putString(name, StandardCharsets.UTF_8).putString(descriptor, StandardCharsets.UTF_8);
+				return null;
+			}
+		}, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+	}
+
+	/**
+	 * @return the classes of the jar by internal name, sorted so that they hash in a stable order
+	 */
+	private static Map<String, byte[]> readClasses(Path jar) throws IOException {
+		Map<String, byte[]> classes = new TreeMap<>();
+
+		try (ZipFile zip = new ZipFile(jar.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+
+				if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+					continue;
+				}
+
+				try (InputStream is = zip.getInputStream(entry)) {
+					classes.put(entry.getName().substring(0, entry.getName().length() - 6), ByteStreams.toByteArray(is));
+				}
+			}
+		}
+
+		return classes;
+	}
+
+	private static void writeClasses(Path jar, Map<String, byte[]> classes) throws IOException {
+		Path tmp = jar.resolveSibling(jar.getFileName() + ".tmp");
+
+		try (OutputStream os = Files.newOutputStream(tmp); ZipOutputStream zos = new ZipOutputStream(os)) {
+			for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+				zos.putNextEntry(new ZipEntry(entry.getKey() + ".class"));
+				zos.write(entry.getValue());
+				zos.closeEntry();
+			}
+		}
+
+		Files.move(tmp, jar, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static class Manifest {
+		int version;
+		String environment;
+		String structure;
+		Map<String, ClassState> classes;
+	}
+
+	private static class ClassState {
+		String hash;
+		String output;
+	}
+}
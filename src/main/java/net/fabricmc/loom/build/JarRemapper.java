@@ -33,10 +33,12 @@ import java.util.List;
 import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.stream.Collectors;
 
 import org.gradle.api.Action;
 import org.objectweb.asm.commons.Remapper;
 
+import net.fabricmc.loom.util.RemapClasspath;
 import net.fabricmc.stitch.util.Pair;
 import net.fabricmc.tinyremapper.IMappingProvider;
 import net.fabricmc.tinyremapper.InputTag;
@@ -75,11 +77,11 @@ public class JarRemapper {
 
 		TinyRemapper remapper = remapperBuilder.build();
 
-		Path[] remapClasspath = classPath.stream()
+		Path[] remapClasspath = RemapClasspath.of(classPath.stream()
 				.filter(path ->
 						remapData.stream().noneMatch(remapData -> remapData.input.equals(path))
 				)
-				.toArray(Path[]::new);
+				.collect(Collectors.toList()));
 
 		remapper.readClassPathAsync(remapClasspath);
 
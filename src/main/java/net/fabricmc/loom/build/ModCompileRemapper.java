@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipFile;
 
+import com.google.common.io.BaseEncoding;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
@@ -48,8 +49,12 @@ import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.LoomGradlePlugin;
 import net.fabricmc.loom.configuration.RemappedConfigurationEntry;
 import net.fabricmc.loom.configuration.mods.ModProcessor;
+import net.fabricmc.loom.configuration.mods.RemappedModStore;
+import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
+import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvider;
 import net.fabricmc.loom.configuration.processors.dependency.ModDependencyInfo;
 import net.fabricmc.loom.configuration.processors.dependency.RemapData;
+import net.fabricmc.loom.util.Checksum;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.OperatingSystem;
 import net.fabricmc.loom.util.SourceRemapper;
@@ -62,7 +67,8 @@ public class ModCompileRemapper {
 		boolean refreshDeps = LoomGradlePlugin.refreshDeps;
 
 		final File modStore = extension.getRemappedModCache();
-		final RemapData remapData = new RemapData(mappingsSuffix, modStore);
+		final RemappedModStore sharedStore = new RemappedModStore(extension.getRemappedModStore(), getStoreEnvironment(mappingsSuffix, extension));
+		final RemapData remapData = new RemapData(mappingsSuffix, modStore, sharedStore);
 
 		for (RemappedConfigurationEntry entry : Constants.MOD_COMPILE_ENTRIES) {
 			Configuration sourceConfig = project.getConfigurations().getByName(entry.getSourceConfiguration());
@@ -120,6 +126,33 @@ public class ModCompileRemapper {
 				project.getDependencies().add(info.targetConfig.getName(), info.getRemappedNotation());
 			}
 		}
+
+		try {
+			sharedStore.evict();
+		} catch (IOException e) {
+			logger.warn("Failed to evict old entries from the remapped mod store", e);
+		}
+	}
+
+	/**
+	 * Describes everything apart from the input jar that the remapped output depends on.
+	 * The store is shared by all projects, so the mappings and the Minecraft jar on the classpath are identified
+	 * by their contents: local or regenerated mappings may have the same name and version as other ones.
+	 */
+	private static String getStoreEnvironment(String mappingsSuffix, LoomGradleExtension extension) {
+		MappingsProvider mappingsProvider = extension.getMappingsProvider();
+		MinecraftMappedProvider mappedProvider = extension.getMinecraftMappedProvider();
+		File mappings = extension.isForge() ? mappingsProvider.tinyMappingsWithSrg.toFile() : mappingsProvider.tinyMappings;
+		File minecraft = extension.isForge() ? mappedProvider.getSrgJar() : mappedProvider.getIntermediaryJar();
+		String environment = mappingsSuffix
+				+ "|mappings-" + BaseEncoding.base16().lowerCase().encode(Checksum.sha256(mappings))
+				+ "|minecraft-" + BaseEncoding.base16().lowerCase().encode(Checksum.sha256(minecraft));
+
+		if (extension.isForge()) {
+			return environment + "|forge-" + extension.getForgeProvider().getVersion().getForgeVersion();
+		}
+
+		return environment;
 	}
 
 	/**
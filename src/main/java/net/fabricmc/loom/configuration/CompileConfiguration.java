@@ -63,6 +63,7 @@ import net.fabricmc.loom.task.RemapJarTask;
 import net.fabricmc.loom.task.RemapSourcesJarTask;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.SourceRemapper;
+import net.fabricmc.loom.util.ThreadingUtils;
 
 /**
  * Add Minecraft dependencies to compile time.
@@ -208,6 +209,10 @@ public final class CompileConfiguration {
 
 			project1.getRepositories().mavenCentral();
 
+			// The pool is shared by the whole build, so the root project's setting applies if it uses Loom
+			LoomGradleExtension rootExtension = project1.getRootProject().getExtensions().findByType(LoomGradleExtension.class);
+			ThreadingUtils.setParallelism(project1.getGradle(), (rootExtension != null ? rootExtension : extension).parallelThreads);
+
 			LoomDependencyManager dependencyManager = new LoomDependencyManager();
 			extension.setDependencyManager(dependencyManager);
 
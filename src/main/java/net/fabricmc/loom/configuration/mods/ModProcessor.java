@@ -26,10 +26,12 @@ package net.fabricmc.loom.configuration.mods;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
@@ -47,6 +49,7 @@ import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -54,11 +57,9 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.apache.commons.io.IOUtils;
 import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
 import org.objectweb.asm.commons.Remapper;
 import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.ByteArrayZipEntryTransformer;
-import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
 import net.fabricmc.accesswidener.AccessWidener;
 import net.fabricmc.accesswidener.AccessWidenerReader;
@@ -71,6 +72,9 @@ import net.fabricmc.loom.configuration.processors.dependency.ModDependencyInfo;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvider;
 import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.JarEntryRewriter;
+import net.fabricmc.loom.util.RemapClasspath;
+import net.fabricmc.loom.util.ThreadingUtils;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
 import net.fabricmc.loom.util.srg.AtRemapper;
 import net.fabricmc.loom.util.srg.CoreModClassRemapper;
@@ -93,37 +97,35 @@ public class ModProcessor {
 					info.getRemappedOutput().delete();
 				}
 
+				if (info.restoreFromStore()) {
+					project.getLogger().info(":restored " + info + " from the remapped mod store");
+					continue;
+				}
+
 				remapList.add(info);
 			}
 		}
 
-		remapJars(project, processList);
+		if (!remapList.isEmpty()) {
+			remapJars(project, processList);
+		}
 
 		for (ModDependencyInfo info : processList) {
 			if (!info.getRemappedOutput().exists()) {
 				throw new RuntimeException("Failed to find remapped mod" + info);
 			}
 		}
-
-		for (ModDependencyInfo info : remapList) {
-			stripNestedJars(info.getRemappedOutput());
-		}
 	}
 
-	private static void stripNestedJars(File file) {
-		if (!ZipUtil.containsEntry(file, "fabric.mod.json")) {
-			return;
+	private static byte[] stripNestedJars(String name, byte[] input) {
+		if (!name.equals("fabric.mod.json")) {
+			return input;
 		}
 
 		// Strip out all contained jar info as we dont want loader to try and load the jars contained in dev.
-		ZipUtil.transformEntries(file, new ZipEntryTransformerEntry[] {(new ZipEntryTransformerEntry("fabric.mod.json", new StringZipEntryTransformer() {
-			@Override
-			protected String transform(ZipEntry zipEntry, String input) {
-				JsonObject json = LoomGradlePlugin.GSON.fromJson(input, JsonObject.class);
-				json.remove("jars");
-				return LoomGradlePlugin.GSON.toJson(json);
-			}
-		}))});
+		JsonObject json = LoomGradlePlugin.GSON.fromJson(new String(input, StandardCharsets.UTF_8), JsonObject.class);
+		json.remove("jars");
+		return LoomGradlePlugin.GSON.toJson(json).getBytes(StandardCharsets.UTF_8);
 	}
 
 	private static byte[] remapAccessWidener(byte[] input, Remapper remapper) {
@@ -154,8 +156,8 @@ public class ModProcessor {
 		MappingsProvider mappingsProvider = extension.getMappingsProvider();
 
 		Path mc = extension.isForge() ? mappedProvider.getSrgJar().toPath() : mappedProvider.getIntermediaryJar().toPath();
-		Path[] mcDeps = project.getConfigurations().getByName(Constants.Configurations.LOADER_DEPENDENCIES).getFiles()
-							.stream().map(File::toPath).toArray(Path[]::new);
+		Path[] mcDeps = RemapClasspath.of(project.getConfigurations().getByName(Constants.Configurations.LOADER_DEPENDENCIES).getFiles()
+							.stream().map(File::toPath).collect(Collectors.toList()));
 
 		List<ModDependencyInfo> remapList = processList.stream().filter(ModDependencyInfo::requiresRemapping).collect(Collectors.toList());
 
@@ -167,7 +169,7 @@ public class ModProcessor {
 						.renameInvalidLocals(false)
 						.build();
 
-		remapper.readClassPathAsync(mc);
+		remapper.readClassPathAsync(RemapClasspath.of(mc));
 		remapper.readClassPathAsync(mcDeps);
 
 		final Map<ModDependencyInfo, InputTag> tagMap = new HashMap<>();
@@ -211,66 +213,28 @@ public class ModProcessor {
 
 		for (ModDependencyInfo info : remapList) {
 			outputConsumerMap.get(info).close();
+		}
+
+		// Every fixup is applied in one rewrite of each jar, and the jars are independent of each other
+		ThreadingUtils.run(remapList, info -> {
+			JarEntryRewriter rewriter = new JarEntryRewriter();
 			byte[] accessWidener = accessWidenerMap.get(info);
 
 			if (accessWidener != null) {
-				ZipUtil.replaceEntry(info.getRemappedOutput(), info.getAccessWidener(), accessWidener);
+				String accessWidenerPath = info.getAccessWidener();
+				rewriter.add((name, input) -> name.equals(accessWidenerPath) ? accessWidener : input);
 			}
 
-			if (extension.isForge()) {
-				AtRemapper.remap(project.getLogger(), info.getRemappedOutput().toPath(), mappings, toM);
-				CoreModClassRemapper.remapJar(info.getRemappedOutput().toPath(), mappings, project.getLogger(), toM);
-
-				Set<String> mixinConfigs = new HashSet<>();
-				Set<String> presentMixinConfigs = new HashSet<>();
-
-				if (ZipUtil.containsEntry(info.getRemappedOutput(), "META-INF/MANIFEST.MF")) {
-					ZipUtil.transformEntry(info.getRemappedOutput(), "META-INF/MANIFEST.MF", (in, zipEntry, out) -> {
-						Manifest manifest = new Manifest(in);
-						fixManifest(manifest);
-						String configs = manifest.getMainAttributes().getValue("MixinConfigs");
+			rewriter.add(ModProcessor::stripNestedJars);
 
-						if (configs != null) {
-							mixinConfigs.addAll(Arrays.asList(configs.split(",")));
-						}
-
-						out.putNextEntry(new ZipEntry(zipEntry.getName()));
-						manifest.write(out);
-						out.closeEntry();
-					});
-				}
-
-				List<String> filesToRemove = new ArrayList<>();
-				ZipUtil.iterate(info.getRemappedOutput(), (in, zipEntry) -> {
-					if (zipEntry.getName().toLowerCase(Locale.ROOT).endsWith(".rsa") || zipEntry.getName().toLowerCase(Locale.ROOT).endsWith(".sf")) {
-						if (zipEntry.getName().startsWith("META-INF")) {
-							filesToRemove.add(zipEntry.getName());
-						}
-					} else if (mixinConfigs.contains(zipEntry.getName())) {
-						presentMixinConfigs.add(zipEntry.getName());
-					}
-				});
-				ZipUtil.removeEntries(info.getRemappedOutput(), filesToRemove.toArray(new String[0]));
-				Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
-				ZipUtil.transformEntries(info.getRemappedOutput(), presentMixinConfigs.stream()
-						.map(path -> new ZipEntryTransformerEntry(path, new ByteArrayZipEntryTransformer() {
-							@Override
-							protected byte[] transform(ZipEntry zipEntry, byte[] input) {
-								try (InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(input))) {
-									JsonObject object = JsonParser.parseReader(reader).getAsJsonObject();
-									object.remove("minVersion");
-									object.addProperty("minVersion", "0.8");
-									return gson.toJson(object).getBytes(StandardCharsets.UTF_8);
-								} catch (IOException exception) {
-									throw new RuntimeException(exception);
-								}
-							}
-						}))
-						.toArray(ZipEntryTransformerEntry[]::new));
+			if (extension.isForge()) {
+				rewriter.add(new ForgeModTransformer(project.getLogger(), mappings, toM));
 			}
 
+			rewriter.rewrite(info.getRemappedOutput().toPath());
 			info.finaliseRemapping();
-		}
+			info.publishToStore();
+		});
 	}
 
 	private static void fixManifest(Manifest manifest) {
@@ -296,6 +260,107 @@ public class ModProcessor {
 		}
 	}
 
+	/**
+	 * Forge fixups for remapped mods: remaps ATs and coremods, strips signatures
+	 * and lowers the required Mixin version of the mod's Mixin configs.
+	 */
+	private static final class ForgeModTransformer implements JarEntryRewriter.Transformer {
+		private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+		private final Logger logger;
+		private final TinyTree mappings;
+		private final String targetNamespace;
+		private final Set<String> mixinConfigs = new HashSet<>();
+		private final Set<String> coreModFiles = new HashSet<>();
+
+		ForgeModTransformer(Logger logger, TinyTree mappings, String targetNamespace) {
+			this.logger = logger;
+			this.mappings = mappings;
+			this.targetNamespace = targetNamespace;
+		}
+
+		@Override
+		public void prepare(ZipFile zip) throws IOException {
+			ZipEntry manifestEntry = zip.getEntry("META-INF/MANIFEST.MF");
+
+			if (manifestEntry != null) {
+				try (InputStream in = zip.getInputStream(manifestEntry)) {
+					String configs = new Manifest(in).getMainAttributes().getValue("MixinConfigs");
+
+					if (configs != null) {
+						mixinConfigs.addAll(Arrays.asList(configs.split(",")));
+					}
+				}
+			}
+
+			ZipEntry coreModsEntry = zip.getEntry("META-INF/coremods.json");
+
+			if (coreModsEntry != null) {
+				try (Reader reader = new InputStreamReader(zip.getInputStream(coreModsEntry), StandardCharsets.UTF_8)) {
+					for (String file : CoreModClassRemapper.readCoreModFiles(reader)) {
+						// The paths are relative to the root of the jar, but may be written with a leading slash
+						while (file.startsWith("/")) {
+							file = file.substring(1);
+						}
+
+						if (zip.getEntry(file) != null) {
+							coreModFiles.add(file);
+						} else {
+							logger.warn("Coremod '" + file + "' listed in coremods.json but not found");
+						}
+					}
+				}
+			}
+		}
+
+		@Override
+		public byte[] transform(String name, byte[] input) throws IOException {
+			String lowerCaseName = name.toLowerCase(Locale.ROOT);
+
+			if (name.equals("META-INF/MANIFEST.MF")) {
+				Manifest manifest = new Manifest(new ByteArrayInputStream(input));
+				fixManifest(manifest);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				manifest.write(out);
+				return out.toByteArray();
+			} else if (name.startsWith("META-INF") && (lowerCaseName.endsWith(".rsa") || lowerCaseName.endsWith(".sf"))) {
+				return null;
+			} else if (name.equals("META-INF/accesstransformer.cfg")) {
+				return AtRemapper.remap(logger, new String(input, StandardCharsets.UTF_8), mappings, targetNamespace).getBytes(StandardCharsets.UTF_8);
+			} else if (coreModFiles.contains(name)) {
+				logger.info(":remapping coremod '" + name + "'");
+				List<String> lines;
+
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(input), StandardCharsets.UTF_8))) {
+					lines = reader.lines().collect(Collectors.toList());
+				}
+
+				List<String> output = CoreModClassRemapper.remap(lines, mappings, targetNamespace);
+
+				if (lines.equals(output)) {
+					return input;
+				}
+
+				StringBuilder sb = new StringBuilder();
+
+				for (String line : output) {
+					sb.append(line).append('\n');
+				}
+
+				return sb.toString().getBytes(StandardCharsets.UTF_8);
+			} else if (mixinConfigs.contains(name)) {
+				try (InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(input), StandardCharsets.UTF_8)) {
+					JsonObject object = JsonParser.parseReader(reader).getAsJsonObject();
+					object.remove("minVersion");
+					object.addProperty("minVersion", "0.8");
+					return GSON.toJson(object).getBytes(StandardCharsets.UTF_8);
+				}
+			}
+
+			return input;
+		}
+	}
+
 	public static JsonObject readInstallerJson(File file, Project project) {
 		try {
 			LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
@@ -0,0 +1,183 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.configuration.mods;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import net.fabricmc.loom.util.Checksum;
+
+/**
+ * A content-addressed store of remapped mods in the Gradle user home, shared by all projects.
+ *
+ * <p>Entries are keyed by the SHA-256 of the input jar and the remapping environment
+ * (the contents of the mappings and the Minecraft jar, and the platform), so a mod is never remapped twice for the same inputs,
+ * even if its timestamp changes when Gradle restores it from a cache.
+ * The least recently used entries are evicted once the store grows past {@link #MAX_SIZE}.
+ */
+public final class RemappedModStore {
+	// Bump this when the remapped output of the same inputs changes
+	private static final int FORMAT_VERSION = 1;
+	private static final long MAX_SIZE = 2L * 1024 * 1024 * 1024;
+
+	private final Path directory;
+	private final String environment;
+
+	public RemappedModStore(File directory, String environment) {
+		this.directory = directory.toPath();
+		this.environment = environment;
+	}
+
+	/**
+	 * Computes the store key of an input jar.
+	 *
+	 * @param input the unmapped mod jar
+	 * @return the key as a hex string
+	 */
+	public String getKey(File input) {
+		// Unchanged jars aren't hashed again, Checksum remembers their hashes in the hash ledger
+		String inputHash = BaseEncoding.base16().lowerCase().encode(Checksum.sha256(input));
+
+		return Hashing.sha256().newHasher()
+				.putString(inputHash, StandardCharsets.UTF_8)
+				.putString(environment, StandardCharsets.UTF_8)
+				.putInt(FORMAT_VERSION)
+				.hash()
+				.toString();
+	}
+
+	private Path getEntry(String key) {
+		return directory.resolve(key.substring(0, 2)).resolve(key + ".jar");
+	}
+
+	/**
+	 * Copies a stored entry to the output file.
+	 *
+	 * @param key    the store key
+	 * @param output the output file
+	 * @return true if the entry was found and copied, false otherwise
+	 * @throws IOException if an {@link IOException} occurred while copying
+	 */
+	public boolean restore(String key, File output) throws IOException {
+		Path entry = getEntry(key);
+
+		try {
+			output.getParentFile().mkdirs();
+			Files.copy(entry, output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+			return true;
+		} catch (NoSuchFileException e) {
+			// Not stored, or evicted by another build in the meantime
+			Files.deleteIfExists(output.toPath());
+			return false;
+		}
+	}
+
+	/**
+	 * Adds a remapped jar to the store. The entry is written to a temporary file first
+	 * and then moved in place, so other builds never see a partial entry.
+	 *
+	 * @param key    the store key
+	 * @param output the remapped jar
+	 * @throws IOException if an {@link IOException} occurred while copying
+	 */
+	public void publish(String key, File output) throws IOException {
+		Path entry = getEntry(key);
+		Files.createDirectories(entry.getParent());
+		Path temp = Files.createTempFile(entry.getParent(), key, ".tmp");
+
+		try {
+			Files.copy(output.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+
+			try {
+				Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the store is smaller than {@link #MAX_SIZE}.
+	 *
+	 * @throws IOException if an {@link IOException} occurred while listing the entries
+	 */
+	public void evict() throws IOException {
+		if (Files.notExists(directory)) {
+			return;
+		}
+
+		List<Path> entries;
+
+		try (Stream<Path> stream = Files.walk(directory)) {
+			entries = stream.filter(path -> path.toString().endsWith(".jar")).collect(Collectors.toCollection(ArrayList::new));
+		}
+
+		long size = 0;
+		Map<Path, Long> lastUsed = new HashMap<>();
+
+		for (Path entry : entries) {
+			size += entry.toFile().length();
+			lastUsed.put(entry, entry.toFile().lastModified());
+		}
+
+		if (size <= MAX_SIZE) {
+			return;
+		}
+
+		entries.sort(Comparator.comparingLong(lastUsed::get));
+
+		for (Path entry : entries) {
+			if (size <= MAX_SIZE) {
+				break;
+			}
+
+			long length = entry.toFile().length();
+
+			if (Files.deleteIfExists(entry)) {
+				size -= length;
+			}
+		}
+	}
+}
@@ -52,6 +52,7 @@ public class ModDependencyInfo {
 	public final RemapData remapData;
 
 	private boolean forceRemap = false;
+	private String storeKey;
 
 	public ModDependencyInfo(String group, String name, String version, @Nullable String classifier, File inputFile, Configuration targetConfig, RemapData remapData) {
 		this.group = group;
@@ -95,6 +96,19 @@ public class ModDependencyInfo {
 		return new File(getRemappedDir(), String.format("%s-%s", name, version) + ".pom");
 	}
 
+	// Records the store key the remapped output was produced from
+	private File getRemappedKeyFile() {
+		return new File(getRemappedDir(), getRemappedFilename(true) + ".key");
+	}
+
+	private String getStoreKey() {
+		if (storeKey == null) {
+			storeKey = remapData.sharedStore.getKey(inputFile);
+		}
+
+		return storeKey;
+	}
+
 	private String getGroup() {
 		return getMappingsPrefix(remapData.mappingsSuffix) + "." + group;
 	}
@@ -108,12 +122,45 @@ public class ModDependencyInfo {
 	}
 
 	public boolean requiresRemapping() {
-		return !getRemappedOutput().exists() || inputFile.lastModified() <= 0 || inputFile.lastModified() > getRemappedOutput().lastModified() || forceRemap || !getRemappedPom().exists();
+		return !getRemappedOutput().exists() || forceRemap || !getRemappedPom().exists() || !isRemappedFromCurrentInput();
+	}
+
+	private boolean isRemappedFromCurrentInput() {
+		File keyFile = getRemappedKeyFile();
+
+		try {
+			return keyFile.exists() && getStoreKey().equals(FileUtils.readFileToString(keyFile, StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Tries to copy the remapped output from the shared store instead of remapping.
+	 *
+	 * @return true if the output was restored, false if the mod has to be remapped
+	 */
+	public boolean restoreFromStore() throws IOException {
+		if (forceRemap || !remapData.sharedStore.restore(getStoreKey(), getRemappedOutput())) {
+			return false;
+		}
+
+		finaliseRemapping();
+		return true;
+	}
+
+	public void publishToStore() throws IOException {
+		remapData.sharedStore.publish(getStoreKey(), getRemappedOutput());
 	}
 
 	public void finaliseRemapping() {
-		getRemappedOutput().setLastModified(inputFile.lastModified());
 		savePom();
+
+		try {
+			FileUtils.writeStringToFile(getRemappedKeyFile(), getStoreKey(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write mod store key", e);
+		}
 	}
 
 	private void savePom() {
@@ -26,12 +26,16 @@ package net.fabricmc.loom.configuration.processors.dependency;
 
 import java.io.File;
 
+import net.fabricmc.loom.configuration.mods.RemappedModStore;
+
 public class RemapData {
 	public final String mappingsSuffix;
 	public final File modStore;
+	public final RemappedModStore sharedStore;
 
-	public RemapData(String mappingsSuffix, File modStore) {
+	public RemapData(String mappingsSuffix, File modStore, RemappedModStore sharedStore) {
 		this.mappingsSuffix = mappingsSuffix;
 		this.modStore = modStore;
+		this.sharedStore = sharedStore;
 	}
 }
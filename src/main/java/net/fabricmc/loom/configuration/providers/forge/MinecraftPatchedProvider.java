@@ -24,35 +24,39 @@
 
 package net.fabricmc.loom.configuration.providers.forge;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintStream;
-import java.io.UncheckedIOException;
-import java.lang.reflect.Field;
 import java.net.URL;
-import java.nio.file.FileSystem;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
 import java.util.stream.Stream;
 
 import com.google.common.base.Predicates;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import de.oceanlabs.mcp.mcinjector.adaptors.ParameterAnnotationFixer;
-import net.minecraftforge.accesstransformer.AccessTransformerEngine;
-import net.minecraftforge.accesstransformer.TransformerProcessor;
-import net.minecraftforge.accesstransformer.parser.AccessTransformerList;
-import net.minecraftforge.binarypatcher.ConsoleTool;
+import lzma.sdk.lzma.Decoder;
+import lzma.streams.LzmaInputStream;
+import net.minecraftforge.binarypatcher.Patch;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.output.NullOutputStream;
 import org.gradle.api.Project;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.plugins.JavaPluginConvention;
@@ -70,11 +74,11 @@ import net.fabricmc.loom.configuration.providers.minecraft.MinecraftMappedProvid
 import net.fabricmc.loom.util.Checksum;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DownloadUtil;
-import net.fabricmc.loom.util.FileSystemUtil;
-import net.fabricmc.loom.util.JarUtil;
+import net.fabricmc.loom.util.JarContents;
 import net.fabricmc.loom.util.ThreadingUtils;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
-import net.fabricmc.loom.util.function.FsPathConsumer;
+import net.fabricmc.loom.util.ZipMerger;
+import net.fabricmc.loom.util.srg.AccessTransformerSet;
 import net.fabricmc.loom.util.srg.InnerClassRemapper;
 import net.fabricmc.loom.util.srg.SpecialSourceExecutor;
 import net.fabricmc.mapping.tree.TinyTree;
@@ -82,6 +86,11 @@ import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 
 public class MinecraftPatchedProvider extends DependencyProvider {
+	private static final byte[] VISIBLE_PARAMETER_ANNOTATIONS = "RuntimeVisibleParameterAnnotations".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] INVISIBLE_PARAMETER_ANNOTATIONS = "RuntimeInvisibleParameterAnnotations".getBytes(StandardCharsets.UTF_8);
+	// How many revisions of the project's access transformer keep their transformed jars around
+	private static final int MAX_CACHED_ATS = 8;
+
 	private final MappingsProvider mappingsProvider;
 	// Step 1: Remap Minecraft to SRG
 	private File minecraftClientSrgJar;
@@ -123,22 +132,26 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 			createSrgJars(getProject().getLogger());
 		}
 
+		// The patched classes are kept in memory for the access transformers if they're produced now
+		Map<Environment, JarContents> patched = null;
+
 		if (!minecraftClientPatchedSrgJar.exists() || !minecraftServerPatchedSrgJar.exists()) {
 			dirty = true;
-			patchJars(getProject().getLogger());
-			injectForgeClasses(getProject().getLogger());
+			patched = patchJars(getProject().getLogger());
 		}
 
-		if (atDirty || !minecraftClientPatchedSrgATJar.exists() || !minecraftServerPatchedSrgATJar.exists()) {
+		// The jars are kept for each revision of the project's access transformer, so switching back to one is cheap
+		if (dirty || !minecraftClientPatchedSrgATJar.exists() || !minecraftServerPatchedSrgATJar.exists()) {
 			dirty = true;
-			accessTransformForge(getProject().getLogger());
+			accessTransformForge(getProject().getLogger(), patched);
 		}
 
-		if (dirty) {
+		if (dirty || !minecraftClientPatchedOfficialJar.exists() || !minecraftServerPatchedOfficialJar.exists()) {
+			dirty = true;
 			remapPatchedJars(getProject().getLogger());
 		}
 
-		if (dirty || !minecraftMergedPatchedJar.exists()) {
+		if (dirty || atDirty || !minecraftMergedPatchedJar.exists()) {
 			mergeJars(getProject().getLogger());
 		}
 	}
@@ -185,20 +198,26 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 
 		File globalCache = getExtension().getUserCache();
 		File cache = usesProjectCache() ? getExtension().getProjectPersistentCache() : globalCache;
+		File atCache = globalCache;
+
+		if (usesProjectCache()) {
+			atCache = new File(getAtCache(), BaseEncoding.base16().lowerCase().encode(Checksum.sha256(projectAt.toFile())));
+			atCache.setLastModified(System.currentTimeMillis());
+		}
 
 		minecraftClientSrgJar = new File(globalCache, "minecraft-" + minecraftVersion + "-client-srg.jar");
 		minecraftServerSrgJar = new File(globalCache, "minecraft-" + minecraftVersion + "-server-srg.jar");
 		minecraftClientPatchedSrgJar = new File(globalCache, "minecraft-" + minecraftVersion + "-client-srg" + jarSuffix + ".jar");
 		minecraftServerPatchedSrgJar = new File(globalCache, "minecraft-" + minecraftVersion + "-server-srg" + jarSuffix + ".jar");
-		minecraftClientPatchedSrgATJar = new File(cache, "minecraft-" + minecraftVersion + "-client-srg-at" + jarSuffix + ".jar");
-		minecraftServerPatchedSrgATJar = new File(cache, "minecraft-" + minecraftVersion + "-server-srg-at" + jarSuffix + ".jar");
-		minecraftClientPatchedOfficialJar = new File(cache, "minecraft-" + minecraftVersion + "-client" + jarSuffix + ".jar");
-		minecraftServerPatchedOfficialJar = new File(cache, "minecraft-" + minecraftVersion + "-server" + jarSuffix + ".jar");
+		minecraftClientPatchedSrgATJar = new File(atCache, "minecraft-" + minecraftVersion + "-client-srg-at" + jarSuffix + ".jar");
+		minecraftServerPatchedSrgATJar = new File(atCache, "minecraft-" + minecraftVersion + "-server-srg-at" + jarSuffix + ".jar");
+		minecraftClientPatchedOfficialJar = new File(atCache, "minecraft-" + minecraftVersion + "-client" + jarSuffix + ".jar");
+		minecraftServerPatchedOfficialJar = new File(atCache, "minecraft-" + minecraftVersion + "-server" + jarSuffix + ".jar");
 		minecraftMergedPatchedJar = new File(cache, "minecraft-" + minecraftVersion + "-merged" + jarSuffix + ".jar");
 
 		if (isRefreshDeps() || Stream.of(getGlobalCaches()).anyMatch(Predicates.not(File::exists))) {
 			cleanAllCache();
-		} else if (atDirty || Stream.of(getProjectCache()).anyMatch(Predicates.not(File::exists))) {
+		} else if (Stream.of(getProjectCache()).anyMatch(Predicates.not(File::exists))) {
 			cleanProjectCache();
 		}
 	}
@@ -208,6 +227,8 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 			Files.deleteIfExists(file.toPath());
 		}
 
+		// The access transformed jars of other revisions were made from the deleted jars too
+		FileUtils.deleteDirectory(getAtCache());
 		cleanProjectCache();
 	}
 
@@ -255,109 +276,74 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 		DownloadUtil.downloadIfChanged(new URL("https://repo1.maven.org/maven2/net/md-5/SpecialSource/1.8.3/SpecialSource-1.8.3-shaded.jar"), specialSourceJar, getProject().getLogger(), true);
 
 		ThreadingUtils.run(
-				() -> Files.copy(SpecialSourceExecutor.produceSrgJar(getProject(), mappingsProvider, "client", specialSourceJar, minecraftProvider.minecraftClientJar.toPath(), srg), minecraftClientSrgJar.toPath()),
-				() -> Files.copy(SpecialSourceExecutor.produceSrgJar(getProject(), mappingsProvider, "server", specialSourceJar, minecraftProvider.minecraftServerJar.toPath(), srg), minecraftServerSrgJar.toPath())
+				() -> SpecialSourceExecutor.produceSrgJar(getProject(), "client", specialSourceJar, minecraftProvider.minecraftClientJar.toPath(), srg, minecraftClientSrgJar.toPath()),
+				() -> SpecialSourceExecutor.produceSrgJar(getProject(), "server", specialSourceJar, minecraftProvider.minecraftServerJar.toPath(), srg, minecraftServerSrgJar.toPath())
 		);
 	}
 
-	private void fixParameterAnnotation(File jarFile) throws Exception {
-		getProject().getLogger().info(":fixing parameter annotations for " + jarFile.toString());
+	private void accessTransformForge(Logger logger, @Nullable Map<Environment, JarContents> patched) throws Exception {
+		String projectAtContents = usesProjectCache() ? new String(Files.readAllBytes(projectAt), StandardCharsets.UTF_8) : null;
+		Files.createDirectories(minecraftClientPatchedSrgATJar.toPath().getParent());
 
-		try (FileSystem fs = JarUtil.fs(jarFile.toPath(), false)) {
-			for (Path rootDir : fs.getRootDirectories()) {
-				for (Path file : (Iterable<? extends Path>) Files.walk(rootDir)::iterator) {
-					if (!file.toString().endsWith(".class")) {
-						continue;
-					}
+		ThreadingUtils.run(Arrays.asList(Environment.values()), environment -> {
+			logger.lifecycle(":access transforming minecraft (" + environment.side() + ")");
 
-					byte[] bytes = Files.readAllBytes(file);
-					ClassReader reader = new ClassReader(bytes);
-					ClassNode node = new ClassNode();
-					ClassVisitor visitor = new ParameterAnnotationFixer(node, null);
-					reader.accept(visitor, 0);
+			JarContents contents = patched != null ? patched.get(environment) : JarContents.read(environment.patchedSrgJar.apply(this));
+			Map<String, String> files = new LinkedHashMap<>();
+			byte[] forgeAt = contents.get("META-INF/accesstransformer.cfg");
 
-					ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-					node.accept(writer);
-					byte[] out = writer.toByteArray();
+			if (forgeAt != null) {
+				files.put("accesstransformer.cfg", new String(forgeAt, StandardCharsets.UTF_8));
+			}
 
-					if (!Arrays.equals(bytes, out)) {
-						Files.delete(file);
-						Files.write(file, out);
-					}
-				}
+			if (projectAtContents != null) {
+				files.put(projectAt.getFileName().toString(), projectAtContents);
 			}
-		}
-	}
 
-	private void injectForgeClasses(Logger logger) throws IOException {
-		logger.lifecycle(":injecting forge classes into minecraft");
-		ThreadingUtils.run(Arrays.asList(Environment.values()), environment -> {
-			copyAll(getExtension().getForgeUniversalProvider().getForge(), environment.patchedSrgJar.apply(this));
-			copyUserdevFiles(getExtension().getForgeUserdevProvider().getUserdevJar(), environment.patchedSrgJar.apply(this));
-		});
+			AccessTransformerSet transformers = AccessTransformerSet.parse(logger, files);
 
-		// Extract injection jar
-		File injection = File.createTempFile("loom-injection", ".jar");
+			// Only the targeted classes are read, everything else is written out as it is
+			ThreadingUtils.run(transformers.getClassNames(), className -> {
+				String name = className + ".class";
+				byte[] bytes = contents.get(name);
 
-		try (InputStream in = MinecraftProvider.class.getResourceAsStream("/inject/injection.jar")) {
-			FileUtils.copyInputStreamToFile(in, injection);
-		}
+				if (bytes != null) {
+					ClassNode node = new ClassNode();
+					new ClassReader(bytes).accept(node, 0);
+					transformers.apply(node);
+					ClassWriter writer = new ClassWriter(0);
+					node.accept(writer);
+					contents.put(name, writer.toByteArray());
+				}
+			});
 
-		for (Environment environment : Environment.values()) {
-			String side = environment.side();
-			File target = environment.patchedSrgJar.apply(this);
+			contents.write(environment.patchedSrgATJar.apply(this));
+		});
 
-			logger.lifecycle(":injecting loom classes into minecraft (" + side + ")");
-			walkFileSystems(injection, target, it -> {
-				String fileName = it.getFileName().toString();
+		if (usesProjectCache()) {
+			pruneAtCache();
+		}
+	}
 
-				if (fileName.equals("MANIFEST.MF")) {
-					return false;
-				}
+	/**
+	 * Deletes the least recently used access transformed jars once there are more than {@link #MAX_CACHED_ATS} revisions of them.
+	 */
+	private void pruneAtCache() throws IOException {
+		File[] revisions = getAtCache().listFiles(File::isDirectory);
 
-				return getExtension().useFabricMixin || !fileName.endsWith("cpw.mods.modlauncher.api.ITransformationService");
-			}, this::copyReplacing);
+		if (revisions == null || revisions.length <= MAX_CACHED_ATS) {
+			return;
 		}
-	}
 
-	private void accessTransformForge(Logger logger) throws Exception {
-		for (Environment environment : Environment.values()) {
-			String side = environment.side();
-			logger.lifecycle(":access transforming minecraft (" + side + ")");
-
-			File input = environment.patchedSrgJar.apply(this);
-			File inputCopied = File.createTempFile("at" + side, ".jar");
-			FileUtils.copyFile(input, inputCopied);
-			File target = environment.patchedSrgATJar.apply(this);
-			target.delete();
-			File at = File.createTempFile("at" + side, ".cfg");
-			JarUtil.extract(inputCopied, "META-INF/accesstransformer.cfg", at);
-			String[] args = new String[] {
-					"--inJar", inputCopied.getAbsolutePath(),
-					"--outJar", target.getAbsolutePath(),
-					"--atFile", at.getAbsolutePath()
-			};
-
-			if (usesProjectCache()) {
-				args = Arrays.copyOf(args, args.length + 2);
-				args[args.length - 2] = "--atFile";
-				args[args.length - 1] = projectAt.toAbsolutePath().toString();
-			}
+		Arrays.sort(revisions, Comparator.comparingLong(File::lastModified).reversed());
 
-			resetAccessTransformerEngine();
-			TransformerProcessor.main(args);
-			inputCopied.delete();
+		for (int i = MAX_CACHED_ATS; i < revisions.length; i++) {
+			FileUtils.deleteDirectory(revisions[i]);
 		}
 	}
 
-	private void resetAccessTransformerEngine() throws Exception {
-		// Thank you Forge, I love you
-		Field field = AccessTransformerEngine.class.getDeclaredField("masterList");
-		field.setAccessible(true);
-		AccessTransformerList list = (AccessTransformerList) field.get(AccessTransformerEngine.INSTANCE);
-		field = AccessTransformerList.class.getDeclaredField("accessTransformers");
-		field.setAccessible(true);
-		((Map<?, ?>) field.get(list)).clear();
+	private File getAtCache() {
+		return new File(getExtension().getProjectPersistentCache(), "access_transformed");
 	}
 
 	private enum Environment {
@@ -428,122 +414,178 @@ public class MinecraftPatchedProvider extends DependencyProvider {
 		});
 	}
 
-	private void patchJars(Logger logger) throws Exception {
+	/**
+	 * Applies the binary patches to the srg jars, fixes their parameter annotations and injects the Forge and Loom
+	 * files. All of that happens in memory, only the patched srg jars are written.
+	 *
+	 * @return the contents of the patched srg jars
+	 */
+	private Map<Environment, JarContents> patchJars(Logger logger) throws IOException {
 		logger.lifecycle(":patching jars");
 
 		PatchProvider patchProvider = getExtension().getPatchProvider();
-		patchJars(minecraftClientSrgJar, minecraftClientPatchedSrgJar, patchProvider.clientPatches);
-		patchJars(minecraftServerSrgJar, minecraftServerPatchedSrgJar, patchProvider.serverPatches);
+		JarContents injected = new JarContents();
+		injected.addAll(getExtension().getForgeUniversalProvider().getForge(), "", name -> true, true);
+		injected.addAll(getExtension().getForgeUserdevProvider().getUserdevJar(), "inject/", name -> true, false);
 
-		ThreadingUtils.run(Arrays.asList(Environment.values()), environment -> {
-			copyMissingClasses(environment.srgJar.apply(this), environment.patchedSrgJar.apply(this));
-			fixParameterAnnotation(environment.patchedSrgJar.apply(this));
-		});
-	}
+		try (InputStream in = MinecraftProvider.class.getResourceAsStream("/inject/injection.jar")) {
+			injected.addAll(in, "", name -> {
+				String fileName = name.substring(name.lastIndexOf('/') + 1);
 
-	private void patchJars(File clean, File output, Path patches) throws IOException {
-		PrintStream out = System.out;
+				if (fileName.equals("MANIFEST.MF")) {
+					return false;
+				}
 
-		try {
-			// Make binpatcher shut up
-			System.setOut(new PrintStream(new NullOutputStream()));
-		} catch (SecurityException ignored) {
-			// ignored
+				return getExtension().useFabricMixin || !fileName.endsWith("cpw.mods.modlauncher.api.ITransformationService");
+			}, true);
 		}
 
-		ConsoleTool.main(new String[]{
-				"--clean", clean.getAbsolutePath(),
-				"--output", output.getAbsolutePath(),
-				"--apply", patches.toAbsolutePath().toString()
+		Map<Environment, JarContents> patched = new ConcurrentHashMap<>();
+
+		ThreadingUtils.run(Arrays.asList(Environment.values()), environment -> {
+			Path patches = environment == Environment.CLIENT ? patchProvider.clientPatches : patchProvider.serverPatches;
+			JarContents contents = patchJar(environment.srgJar.apply(this), patches);
+
+			logger.lifecycle(":injecting forge classes into minecraft (" + environment.side() + ")");
+			contents.addAll(injected, true);
+			contents.write(environment.patchedSrgJar.apply(this));
+			patched.put(environment, contents);
 		});
 
-		try {
-			System.setOut(out);
-		} catch (SecurityException ignored) {
-			// ignored
-		}
+		return patched;
 	}
 
-	private void mergeJars(Logger logger) throws IOException {
-		// FIXME: Hack here: There are no server-only classes so we can just copy the client JAR.
-		FileUtils.copyFile(minecraftClientPatchedOfficialJar, minecraftMergedPatchedJar);
+	private JarContents patchJar(File clean, Path patchFile) throws IOException {
+		Map<String, Patch> patches = readPatches(patchFile);
+		JarContents contents = new JarContents();
+		contents.addAll(clean, "", name -> name.endsWith(".class"), true);
 
-		logger.lifecycle(":copying resources");
+		// binarypatcher applies every patch with the same patcher instance, so the sides take turns
+		synchronized (Patch.class) {
+			for (Map.Entry<String, byte[]> entry : contents.getEntries().entrySet()) {
+				String name = entry.getKey();
+				Patch patch = patches.remove(name.substring(0, name.length() - ".class".length()));
 
-		// Copy resources
-		MinecraftProvider minecraftProvider = getExtension().getMinecraftProvider();
-		copyNonClassFiles(minecraftProvider.minecraftClientJar, minecraftMergedPatchedJar);
-		copyNonClassFiles(minecraftProvider.minecraftServerJar, minecraftMergedPatchedJar);
-	}
+				if (patch != null) {
+					contents.put(name, patch.apply(entry.getValue()));
+				}
+			}
 
-	private void walkFileSystems(File source, File target, Predicate<Path> filter, Function<FileSystem, Iterable<Path>> toWalk, FsPathConsumer action) throws IOException {
-		try (FileSystemUtil.FileSystemDelegate sourceFs = FileSystemUtil.getJarFileSystem(source, false);
-				FileSystemUtil.FileSystemDelegate targetFs = FileSystemUtil.getJarFileSystem(target, false)) {
-			for (Path sourceDir : toWalk.apply(sourceFs.get())) {
-				Path dir = sourceDir.toAbsolutePath();
-				Files.walk(dir)
-						.filter(Files::isRegularFile)
-						.filter(filter)
-						.forEach(it -> {
-							boolean root = dir.getParent() == null;
-
-							try {
-								Path relativeSource = root ? it : dir.relativize(it);
-								Path targetPath = targetFs.get().getPath(relativeSource.toString());
-								action.accept(sourceFs.get(), targetFs.get(), it, targetPath);
-							} catch (IOException e) {
-								throw new UncheckedIOException(e);
-							}
-						});
+			// Classes added by Forge
+			for (Patch patch : patches.values()) {
+				if (!patch.exists) {
+					contents.put(patch.obf + ".class", patch.apply(new byte[0]));
+				}
 			}
 		}
-	}
 
-	private void walkFileSystems(File source, File target, Predicate<Path> filter, FsPathConsumer action) throws IOException {
-		walkFileSystems(source, target, filter, FileSystem::getRootDirectories, action);
+		fixParameterAnnotations(contents);
+		return contents;
 	}
 
-	private void copyAll(File source, File target) throws IOException {
-		walkFileSystems(source, target, it -> true, this::copyReplacing);
+	private static Map<String, Patch> readPatches(Path patchFile) throws IOException {
+		Map<String, Patch> patches = new HashMap<>();
+
+		try (InputStream is = new LzmaInputStream(Files.newInputStream(patchFile), new Decoder());
+				JarInputStream jar = new JarInputStream(is)) {
+			JarEntry entry;
+
+			while ((entry = jar.getNextJarEntry()) != null) {
+				if (entry.getName().endsWith(".binpatch")) {
+					Patch patch = Patch.from(new ByteArrayInputStream(ByteStreams.toByteArray(jar)));
+					patches.put(patch.obf, patch);
+				}
+			}
+		}
+
+		return patches;
 	}
 
-	private void copyMissingClasses(File source, File target) throws IOException {
-		walkFileSystems(source, target, it -> it.toString().endsWith(".class"), (sourceFs, targetFs, sourcePath, targetPath) -> {
-			if (Files.exists(targetPath)) return;
-			Path parent = targetPath.getParent();
+	/**
+	 * Runs the classes through MCInjector's {@link ParameterAnnotationFixer}. It only changes parameter annotations,
+	 * so classes that have none are found from their constant pool and left alone; the others are fixed in parallel.
+	 */
+	private static void fixParameterAnnotations(JarContents contents) {
+		List<String> candidates = new ArrayList<>();
 
-			if (parent != null) {
-				Files.createDirectories(parent);
+		for (Map.Entry<String, byte[]> entry : contents.getEntries().entrySet()) {
+			if (entry.getKey().endsWith(".class") && hasParameterAnnotations(entry.getValue())) {
+				candidates.add(entry.getKey());
 			}
+		}
 
-			Files.copy(sourcePath, targetPath);
+		ThreadingUtils.run(candidates, name -> {
+			byte[] bytes = contents.get(name);
+			byte[] fixed = fixParameterAnnotation(bytes);
+
+			if (fixed != bytes) {
+				contents.put(name, fixed);
+			}
 		});
 	}
 
-	private void copyNonClassFiles(File source, File target) throws IOException {
-		walkFileSystems(source, target, it -> !it.toString().endsWith(".class"), this::copyReplacing);
-	}
+	private static boolean hasParameterAnnotations(byte[] bytes) {
+		ClassReader reader = new ClassReader(bytes);
+
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
 
-	private void copyReplacing(FileSystem sourceFs, FileSystem targetFs, Path sourcePath, Path targetPath) throws IOException {
-		Path parent = targetPath.getParent();
+			// The second slot of longs and doubles has no item, 1 is the tag of CONSTANT_Utf8
+			if (offset == 0 || bytes[offset - 1] != 1) {
+				continue;
+			}
 
-		if (parent != null) {
-			Files.createDirectories(parent);
+			int length = reader.readUnsignedShort(offset);
+
+			if (matches(bytes, offset + 2, length, VISIBLE_PARAMETER_ANNOTATIONS) || matches(bytes, offset + 2, length, INVISIBLE_PARAMETER_ANNOTATIONS)) {
+				return true;
+			}
 		}
 
-		Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+		return false;
 	}
 
-	private void copyUserdevFiles(File source, File target) throws IOException {
-		walkFileSystems(source, target, file -> true, fs -> Collections.singleton(fs.getPath("inject")), (sourceFs, targetFs, sourcePath, targetPath) -> {
-			Path parent = targetPath.getParent();
+	private static boolean matches(byte[] bytes, int offset, int length, byte[] expected) {
+		if (length != expected.length) {
+			return false;
+		}
 
-			if (parent != null) {
-				Files.createDirectories(parent);
+		for (int i = 0; i < length; i++) {
+			if (bytes[offset + i] != expected[i]) {
+				return false;
 			}
+		}
 
-			Files.copy(sourcePath, targetPath);
-		});
+		return true;
+	}
+
+	private static byte[] fixParameterAnnotation(byte[] bytes) {
+		ClassReader reader = new ClassReader(bytes);
+		ClassNode node = new ClassNode();
+		ClassVisitor visitor = new ParameterAnnotationFixer(node, null);
+		reader.accept(visitor, 0);
+
+		// The fixer only touches annotations, the max stack and locals read from the class are still right
+		ClassWriter writer = new ClassWriter(0);
+		node.accept(writer);
+		byte[] out = writer.toByteArray();
+
+		return Arrays.equals(bytes, out) ? bytes : out;
+	}
+
+	private void mergeJars(Logger logger) throws IOException {
+		logger.lifecycle(":merging jars");
+
+		MinecraftProvider minecraftProvider = getExtension().getMinecraftProvider();
+		Predicate<String> nonClassFiles = name -> !name.endsWith(".class");
+
+		// FIXME: Hack here: There are no server-only classes so we can just use the classes of the client JAR.
+		// The resources of the vanilla jars replace the ones of the patched jar, the server's taking precedence.
+		ZipMerger.merge(minecraftMergedPatchedJar.toPath(),
+				new ZipMerger.Source(minecraftClientPatchedOfficialJar.toPath(), name -> true),
+				new ZipMerger.Source(minecraftProvider.minecraftClientJar.toPath(), nonClassFiles),
+				new ZipMerger.Source(minecraftProvider.minecraftServerJar.toPath(), nonClassFiles)
+		);
 	}
 
 	public File getMergedJar() {
@@ -42,7 +42,7 @@ public final class MappingsCache {
 	private final Map<Path, SoftReference<TinyTree>> mappingsCache = new HashMap<>();
 
 	// TODO: loom doesn't actually use new mappings when the mappings change until the gradle daemons are stopped
-	public TinyTree get(Path mappingsPath) throws IOException {
+	public synchronized TinyTree get(Path mappingsPath) throws IOException {
 		mappingsPath = mappingsPath.toAbsolutePath();
 
 		if (StaticPathWatcher.INSTANCE.hasFileChanged(mappingsPath)) {
@@ -63,7 +63,7 @@ public final class MappingsCache {
 		}
 	}
 
-	public void invalidate() {
+	public synchronized void invalidate() {
 		mappingsCache.clear();
 	}
 }
@@ -68,7 +68,6 @@ import net.fabricmc.loom.LoomGradlePlugin;
 import net.fabricmc.loom.configuration.providers.minecraft.MinecraftVersionInfo;
 import net.fabricmc.loom.util.DownloadUtil;
 import net.fabricmc.lorenztiny.TinyMappingsReader;
-import net.fabricmc.mapping.tree.TinyMappingFactory;
 
 public class MojangMappingsDependency extends AbstractModuleDependency implements SelfResolvingDependency, ExternalModuleDependency {
 	public static final String GROUP = "net.minecraft";
@@ -194,11 +193,7 @@ public class MojangMappingsDependency extends AbstractModuleDependency implement
 		}
 
 		MappingSet officialToNamed = mappings.reverse();
-		MappingSet intermediaryToOfficial;
-
-		try (BufferedReader reader = Files.newBufferedReader(extension.getMappingsProvider().getIntermediaryTiny(), StandardCharsets.UTF_8)) {
-			intermediaryToOfficial = new TinyMappingsReader(TinyMappingFactory.loadWithDetection(reader), "intermediary", "official").read();
-		}
+		MappingSet intermediaryToOfficial = new TinyMappingsReader(MappingsCache.INSTANCE.get(extension.getMappingsProvider().getIntermediaryTiny()), "intermediary", "official").read();
 
 		MappingSet intermediaryToMojang = MappingSet.create();
 
@@ -29,20 +29,16 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UncheckedIOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
+import java.util.stream.Collectors;
 
 import com.google.common.collect.ImmutableMap;
 import org.gradle.api.Project;
@@ -53,6 +49,8 @@ import net.fabricmc.loom.configuration.providers.MinecraftProvider;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.JarUtil;
+import net.fabricmc.loom.util.RemapClasspath;
+import net.fabricmc.loom.util.ThreadingUtils;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
 import net.fabricmc.loom.util.srg.AtRemapper;
 import net.fabricmc.loom.util.srg.CoreModClassRemapper;
@@ -140,82 +138,78 @@ public class MinecraftMappedProvider extends DependencyProvider {
 		Path outputIntermediary = minecraftIntermediaryJar.toPath();
 		Path outputSrg = minecraftSrgJar == null ? null : minecraftSrgJar.toPath();
 
-		ExecutorService executor = Executors.newFixedThreadPool(Math.min(10, Math.max(Runtime.getRuntime().availableProcessors() / 2, 1)));
-		List<Future<?>> futures = new LinkedList<>();
 		Path[] remapClasspath = getRemapClasspath();
+		// Every target namespace still reads the classpath and input on its own: tiny-remapper 0.3.2 binds the
+		// classes it reads to one remapper and its mappings, so they can't be shared between the remappers below.
+		// FORGE: Scan the input once for inner classes instead of once per target namespace
+		Set<String> innerClasses = getExtension().isForge() ? InnerClassRemapper.readInnerClasses(input) : null;
 
-		for (String toM : (getExtension().isForge() ? Arrays.asList("named", "intermediary", "srg") : Arrays.asList("named", "intermediary"))) {
-			futures.add(executor.submit(() -> {
-				try {
-					Path output = "named".equals(toM) ? outputMapped : "srg".equals(toM) ? outputSrg : outputIntermediary;
+		ThreadingUtils.run(getExtension().isForge() ? Arrays.asList("named", "intermediary", "srg") : Arrays.asList("named", "intermediary"), toM -> {
+			Path output = "named".equals(toM) ? outputMapped : "srg".equals(toM) ? outputSrg : outputIntermediary;
 
-					getProject().getLogger().lifecycle(":remapping minecraft (TinyRemapper, " + fromM + " -> " + toM + ")");
+			getProject().getLogger().lifecycle(":remapping minecraft (TinyRemapper, " + fromM + " -> " + toM + ")");
 
-					TinyRemapper remapper = getTinyRemapper(input, fromM, toM);
+			TinyRemapper remapper = createTinyRemapper(innerClasses, fromM, toM);
 
-					try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
-						if (getExtension().isForge()) {
-							outputConsumer.addNonClassFiles(input, NonClassCopyMode.FIX_META_INF, remapper);
-						} else {
-							outputConsumer.addNonClassFiles(input);
-						}
-
-						remapper.readClassPath(remapClasspath);
-						remapper.readInputs(input);
-						remapper.apply(outputConsumer);
-					} catch (Exception e) {
-						Files.deleteIfExists(output);
-						throw new RuntimeException("Failed to remap JAR " + input + " with mappings from " + mappingsProvider.tinyMappings, e);
-					} finally {
-						remapper.finish();
-					}
-
-					if (getExtension().isForge() && !"srg".equals(toM)) {
-						getProject().getLogger().info(":running forge finalising tasks");
+			try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
+				if (getExtension().isForge()) {
+					outputConsumer.addNonClassFiles(input, NonClassCopyMode.FIX_META_INF, remapper);
+				} else {
+					outputConsumer.addNonClassFiles(input);
+				}
 
-						// TODO: Relocate this to its own class
-						try (FileSystem fs = JarUtil.fs(output, false)) {
-							Path manifestPath = fs.getPath("META-INF", "MANIFEST.MF");
-							Manifest minecraftManifest;
-							Manifest forgeManifest;
+				remapper.readClassPath(remapClasspath);
+				remapper.readInputs(input);
+				remapper.apply(outputConsumer);
+			} catch (Exception e) {
+				Files.deleteIfExists(output);
+				throw new RuntimeException("Failed to remap JAR " + input + " with mappings from " + mappingsProvider.tinyMappings, e);
+			} finally {
+				remapper.finish();
+			}
 
-							try (InputStream in = Files.newInputStream(manifestPath)) {
-								minecraftManifest = new Manifest(in);
-							}
+			if (getExtension().isForge() && !"srg".equals(toM)) {
+				getProject().getLogger().info(":running forge finalising tasks");
 
-							try (InputStream in = new FileInputStream(getExtension().getForgeUniversalProvider().getForgeManifest())) {
-								forgeManifest = new Manifest(in);
-							}
+				// TODO: Relocate this to its own class
+				try (FileSystem fs = JarUtil.fs(output, false)) {
+					Path manifestPath = fs.getPath("META-INF", "MANIFEST.MF");
+					Manifest minecraftManifest;
+					Manifest forgeManifest;
 
-							for (Map.Entry<String, Attributes> forgeEntry : forgeManifest.getEntries().entrySet()) {
-								if (forgeEntry.getKey().endsWith("/")) {
-									minecraftManifest.getEntries().put(forgeEntry.getKey(), forgeEntry.getValue());
-								}
-							}
+					try (InputStream in = Files.newInputStream(manifestPath)) {
+						minecraftManifest = new Manifest(in);
+					}
 
-							Files.delete(manifestPath);
+					try (InputStream in = new FileInputStream(getExtension().getForgeUniversalProvider().getForgeManifest())) {
+						forgeManifest = new Manifest(in);
+					}
 
-							try (OutputStream out = Files.newOutputStream(manifestPath)) {
-								minecraftManifest.write(out);
-							}
+					for (Map.Entry<String, Attributes> forgeEntry : forgeManifest.getEntries().entrySet()) {
+						if (forgeEntry.getKey().endsWith("/")) {
+							minecraftManifest.getEntries().put(forgeEntry.getKey(), forgeEntry.getValue());
 						}
+					}
 
-						TinyTree yarnWithSrg = getExtension().getMappingsProvider().getMappingsWithSrg();
-						AtRemapper.remap(getProject().getLogger(), output, yarnWithSrg, toM);
-						CoreModClassRemapper.remapJar(output, yarnWithSrg, getProject().getLogger(), toM);
+					Files.delete(manifestPath);
+
+					try (OutputStream out = Files.newOutputStream(manifestPath)) {
+						minecraftManifest.write(out);
 					}
-				} catch (IOException e) {
-					throw new UncheckedIOException(e);
 				}
-			}));
-		}
 
-		for (Future<?> future : futures) {
-			future.get();
-		}
+				TinyTree yarnWithSrg = getExtension().getMappingsProvider().getMappingsWithSrg();
+				AtRemapper.remap(getProject().getLogger(), output, yarnWithSrg, toM);
+				CoreModClassRemapper.remapJar(output, yarnWithSrg, getProject().getLogger(), toM);
+			}
+		});
 	}
 
 	public TinyRemapper getTinyRemapper(@Nullable Path fromJar, String fromM, String toM) throws IOException {
+		return createTinyRemapper(fromJar != null && getExtension().isForge() ? InnerClassRemapper.readInnerClasses(fromJar) : null, fromM, toM);
+	}
+
+	private TinyRemapper createTinyRemapper(@Nullable Set<String> innerClasses, String fromM, String toM) throws IOException {
 		TinyRemapper.Builder builder = TinyRemapper.newRemapper()
 				.withMappings(TinyRemapperMappingsHelper.create(getExtension().isForge() ? getExtension().getMappingsProvider().getMappingsWithSrg() : getExtension().getMappingsProvider().getMappings(), fromM, toM, true))
 				.renameInvalidLocals(true)
@@ -228,8 +222,8 @@ public class MinecraftMappedProvider extends DependencyProvider {
 			 */
 			builder.fixPackageAccess(true);
 
-			if (fromJar != null) {
-				builder.withMappings(InnerClassRemapper.of(fromJar, getExtension().getMappingsProvider().getMappingsWithSrg(), fromM, toM));
+			if (innerClasses != null) {
+				builder.withMappings(InnerClassRemapper.of(innerClasses, getExtension().getMappingsProvider().getMappingsWithSrg(), fromM, toM));
 			}
 		} else {
 			builder.withMappings(out -> JSR_TO_JETBRAINS.forEach(out::acceptClass));
@@ -243,8 +237,8 @@ public class MinecraftMappedProvider extends DependencyProvider {
 	}
 
 	public static Path[] getRemapClasspath(Project project) {
-		return project.getConfigurations().getByName(Constants.Configurations.MINECRAFT_DEPENDENCIES).getFiles()
-				.stream().map(File::toPath).toArray(Path[]::new);
+		return RemapClasspath.of(project.getConfigurations().getByName(Constants.Configurations.MINECRAFT_DEPENDENCIES).getFiles()
+				.stream().map(File::toPath).collect(Collectors.toList()));
 	}
 
 	protected void addDependencies(DependencyInfo dependency, Consumer<Runnable> postPopulationScheduler) {
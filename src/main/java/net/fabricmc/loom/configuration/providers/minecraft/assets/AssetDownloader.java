@@ -0,0 +1,280 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.configuration.providers.minecraft.assets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.ByteStreams;
+import org.gradle.api.logging.Logger;
+
+import net.fabricmc.loom.util.Checksum;
+import net.fabricmc.loom.util.ThreadingUtils;
+import net.fabricmc.loom.util.gradle.ProgressLogger;
+
+/**
+ * Keeps the asset objects directory in sync with asset indexes.
+ *
+ * <p>Existing objects are checked against their SHA-1 through the {@link net.fabricmc.loom.util.HashLedger},
+ * so only objects that are new or that changed since they were last verified are hashed.
+ *
+ * <p>Missing objects are downloaded by a pool of workers that all go to the same host, so the
+ * connections are kept alive and reused between objects. The number of concurrent downloads grows while
+ * downloads succeed and halves when one fails. Downloads go to a {@code .part} file first and are resumed
+ * from where they stopped, and objects are only moved in place once their hash has been checked.
+ */
+public class AssetDownloader {
+	private static final int MIN_CONCURRENCY = 2;
+	private static final int INITIAL_CONCURRENCY = 8;
+	private static final int MAX_CONCURRENCY = 32;
+	private static final int ATTEMPTS = 3;
+	private static final int TIMEOUT_MILLIS = 30_000;
+	private static final int PROGRESS_INTERVAL_MILLIS = 100;
+
+	private final File objects;
+	private final String baseUrl;
+	private final Logger logger;
+
+	/**
+	 * @param assets the assets directory
+	 * @param baseUrl the URL the objects are downloaded from, they are expected at {@code <hash prefix>/<hash>} below it
+	 */
+	public AssetDownloader(File assets, String baseUrl, Logger logger) {
+		this.objects = new File(assets, "objects");
+		this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+		this.logger = logger;
+	}
+
+	public File getFile(AssetObject object) {
+		return new File(objects, object.getHash().substring(0, 2) + File.separator + object.getHash());
+	}
+
+	/**
+	 * @return the objects that are not present, or whose contents are wrong
+	 */
+	public List<AssetObject> findMissing(Collection<AssetObject> objects) {
+		Queue<AssetObject> missing = new ConcurrentLinkedQueue<>();
+		ThreadingUtils.run(objects, object -> {
+			File file = getFile(object);
+
+			if (file.length() != object.getSize() || !Checksum.equals(file, object.getHash())) {
+				missing.add(object);
+			}
+		});
+
+		return new ArrayList<>(missing);
+	}
+
+	/**
+	 * Downloads the objects and records them as verified.
+	 *
+	 * @throws IOException if any object could not be downloaded after {@value #ATTEMPTS} attempts
+	 */
+	public void download(Collection<AssetObject> objects, ProgressLogger progressLogger) throws IOException {
+		if (objects.isEmpty()) {
+			return;
+		}
+
+		Queue<AssetObject> queue = new ConcurrentLinkedQueue<>(objects);
+		Map<AssetObject, Integer> attempts = new ConcurrentHashMap<>();
+		Queue<String> failures = new ConcurrentLinkedQueue<>();
+		AtomicInteger done = new AtomicInteger();
+		Limiter limiter = new Limiter();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_CONCURRENCY, objects.size()));
+		List<Future<?>> workers = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < Math.min(MAX_CONCURRENCY, objects.size()); i++) {
+				workers.add(executor.submit(() -> {
+					AssetObject object;
+
+					while ((object = queue.poll()) != null) {
+						limiter.acquire();
+						boolean success = false;
+
+						try {
+							download(object);
+							success = true;
+							done.incrementAndGet();
+						} catch (IOException e) {
+							if (attempts.merge(object, 1, Integer::sum) < ATTEMPTS) {
+								logger.info("Retrying asset {}: {}", object.getHash(), e.toString());
+								queue.add(object);
+							} else {
+								failures.add(object.getHash() + ": " + e);
+							}
+						} finally {
+							limiter.release(success);
+						}
+					}
+
+					return null;
+				}));
+			}
+
+			// The workers only count, this thread is the only one reporting progress
+			int reported = -1;
+
+			for (Future<?> worker : workers) {
+				while (!worker.isDone()) {
+					int count = done.get();
+
+					if (count != reported) {
+						progressLogger.progress(count + "/" + objects.size() + " assets");
+						reported = count;
+					}
+
+					try {
+						worker.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+					} catch (TimeoutException e) {
+						// Still downloading
+					}
+				}
+
+				worker.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while downloading assets", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to download assets", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (!failures.isEmpty()) {
+			throw new IOException("Failed to download " + failures.size() + " assets:\n" + String.join("\n", failures));
+		}
+	}
+
+	private void download(AssetObject object) throws IOException {
+		String hash = object.getHash();
+		File file = getFile(object);
+		File part = new File(file.getPath() + ".part");
+		URL url = new URL(baseUrl + hash.substring(0, 2) + "/" + hash);
+		file.getParentFile().mkdirs();
+
+		long offset = part.length();
+
+		if (offset >= object.getSize()) {
+			// Complete but corrupt, or larger than it should be
+			part.delete();
+			offset = 0;
+		}
+
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout(TIMEOUT_MILLIS);
+		connection.setReadTimeout(TIMEOUT_MILLIS);
+		boolean append = false;
+
+		if (connection instanceof HttpURLConnection) {
+			HttpURLConnection http = (HttpURLConnection) connection;
+
+			if (offset > 0) {
+				http.setRequestProperty("Range", "bytes=" + offset + "-");
+			}
+
+			int code = http.getResponseCode();
+
+			if (code == HttpURLConnection.HTTP_PARTIAL) {
+				append = offset > 0;
+			} else if (code != HttpURLConnection.HTTP_OK) {
+				// Read the error so the connection can be reused
+				try (InputStream error = http.getErrorStream()) {
+					if (error != null) {
+						ByteStreams.exhaust(error);
+					}
+				}
+
+				throw new IOException(code + " " + http.getResponseMessage() + " for " + url);
+			}
+		}
+
+		try (InputStream is = connection.getInputStream(); OutputStream os = new FileOutputStream(part, append)) {
+			ByteStreams.copy(is, os);
+		}
+
+		if (part.length() != object.getSize() || !Checksum.equals(part, hash)) {
+			part.delete();
+			throw new IOException("Downloaded asset " + hash + " does not match its hash");
+		}
+
+		Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Limits the number of concurrent downloads: one more for every limit's worth of successful downloads,
+	 * half as many after a failure.
+	 */
+	private static class Limiter {
+		private int limit = INITIAL_CONCURRENCY;
+		private int active;
+		private int successes;
+
+		synchronized void acquire() throws InterruptedException {
+			while (active >= limit) {
+				wait();
+			}
+
+			active++;
+		}
+
+		synchronized void release(boolean success) {
+			active--;
+
+			if (!success) {
+				limit = Math.max(MIN_CONCURRENCY, limit / 2);
+				successes = 0;
+			} else if (++successes >= limit) {
+				limit = Math.min(MAX_CONCURRENCY, limit + 1);
+				successes = 0;
+			}
+
+			notifyAll();
+		}
+	}
+}
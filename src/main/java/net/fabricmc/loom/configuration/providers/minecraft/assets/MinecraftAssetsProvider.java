@@ -28,12 +28,10 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
-import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
 
 import com.google.common.base.Stopwatch;
 import com.google.gson.Gson;
@@ -49,6 +47,9 @@ import net.fabricmc.loom.util.DownloadUtil;
 import net.fabricmc.loom.util.gradle.ProgressLogger;
 
 public class MinecraftAssetsProvider {
+	// Where to download the asset objects from instead of Mojang's servers, e.g. a mirror, or a local directory for offline tests
+	private static final String ASSETS_URL_PROPERTY = "fabric.loom.assets.url";
+
 	public static void provide(MinecraftProvider minecraftProvider, Project project) throws IOException {
 		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
 		boolean offline = project.getGradle().getStartParameter().isOffline();
@@ -81,11 +82,6 @@ public class MinecraftAssetsProvider {
 			}
 		}
 
-		project.getLogger().lifecycle(":downloading assets...");
-
-		Deque<ProgressLogger> loggers = new ConcurrentLinkedDeque<>();
-		ExecutorService executor = Executors.newFixedThreadPool(Math.min(10, Math.max(Runtime.getRuntime().availableProcessors() / 2, 1)));
-
 		AssetIndex index;
 
 		try (FileReader fileReader = new FileReader(assetsInfo)) {
@@ -93,71 +89,46 @@ public class MinecraftAssetsProvider {
 		}
 
 		Stopwatch stopwatch = Stopwatch.createStarted();
-
+		String baseUrl = project.hasProperty(ASSETS_URL_PROPERTY) ? (String) project.property(ASSETS_URL_PROPERTY) : Constants.RESOURCES_BASE;
+		AssetDownloader downloader = new AssetDownloader(assets, baseUrl, project.getLogger());
 		Map<String, AssetObject> parent = index.getFileMap();
+		List<AssetObject> missing = downloader.findMissing(new HashSet<>(parent.values()));
+
+		project.getLogger().info("Took " + stopwatch.stop() + " to verify " + parent.size() + " assets, " + missing.size() + " missing.");
+
+		if (missing.isEmpty()) {
+			return;
+		}
+
+		if (offline) {
+			Set<AssetObject> missingSet = new HashSet<>(missing);
 
-		parent.entrySet().parallelStream().forEach(entry -> {
-			AssetObject object = entry.getValue();
-			String sha1 = object.getHash();
-			String filename = "objects" + File.separator + sha1.substring(0, 2) + File.separator + sha1;
-			File file = new File(assets, filename);
-
-			if (!file.exists() || !Checksum.equals(file, sha1)) {
-				if (offline) {
-					if (file.exists()) {
-						project.getLogger().warn("Outdated asset " + entry.getKey());
-					} else {
-						throw new GradleException("Asset " + entry.getKey() + " not found at " + file.getAbsolutePath());
-					}
+			for (Map.Entry<String, AssetObject> entry : parent.entrySet()) {
+				if (!missingSet.contains(entry.getValue())) {
+					continue;
+				}
+
+				File file = downloader.getFile(entry.getValue());
+
+				if (file.exists()) {
+					project.getLogger().warn("Outdated asset " + entry.getKey());
 				} else {
-					executor.execute(() -> {
-						ProgressLogger progressLogger;
-
-						if (loggers.isEmpty()) {
-							//Create a new logger if we need one
-							progressLogger = ProgressLogger.getProgressFactory(project, MinecraftAssetsProvider.class.getName());
-							progressLogger.start("Downloading assets...", "assets");
-						} else {
-							// use a free logger if we can
-							progressLogger = loggers.pop();
-						}
-
-						String assetName = entry.getKey();
-						int end = assetName.lastIndexOf("/") + 1;
-
-						if (end > 0) {
-							assetName = assetName.substring(end);
-						}
-
-						project.getLogger().debug(":downloading asset " + assetName);
-						progressLogger.progress(String.format("%-30.30s", assetName) + " - " + sha1);
-
-						try {
-							DownloadUtil.downloadIfChanged(new URL(Constants.RESOURCES_BASE + sha1.substring(0, 2) + "/" + sha1), file, project.getLogger(), true);
-						} catch (IOException e) {
-							throw new RuntimeException("Failed to download: " + assetName, e);
-						}
-
-						//Give this logger back
-						loggers.add(progressLogger);
-					});
+					throw new GradleException("Asset " + entry.getKey() + " not found at " + file.getAbsolutePath());
 				}
 			}
-		});
 
-		project.getLogger().info("Took " + stopwatch.stop() + " to iterate " + parent.size() + " asset index.");
+			return;
+		}
 
-		//Wait for the assets to all download
-		executor.shutdown();
+		project.getLogger().lifecycle(":downloading {} assets...", missing.size());
+
+		ProgressLogger progressLogger = ProgressLogger.getProgressFactory(project, MinecraftAssetsProvider.class.getName());
+		progressLogger.start("Downloading assets...", "assets");
 
 		try {
-			if (executor.awaitTermination(2, TimeUnit.HOURS)) {
-				executor.shutdownNow();
-			}
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
+			downloader.download(missing, progressLogger);
+		} finally {
+			progressLogger.completed();
 		}
-
-		loggers.forEach(ProgressLogger::completed);
 	}
 }
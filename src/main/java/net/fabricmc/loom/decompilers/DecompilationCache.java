@@ -0,0 +1,371 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import org.gradle.api.logging.Logger;
+
+import net.fabricmc.loom.LoomGradlePlugin;
+import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
+import net.fabricmc.loom.api.decompilers.LoomDecompiler;
+import net.fabricmc.loom.util.Checksum;
+
+/**
+ * Decompiles only the classes that changed since the last run, and splices the sources and line maps
+ * of the others in from the previous output.
+ *
+ * <p>Classes are decompiled per top-level class, together with their inner classes, and a top-level class is
+ * redecompiled when the bytes of any of its classes change. The unchanged classes are given to the decompiler
+ * as a library so that the changed ones still see the full hierarchy. Anything else the output depends on
+ * (the decompiler, javadoc mappings and libraries) is part of the environment, and a change to it
+ * invalidates everything.
+ */
+public class DecompilationCache {
+	private static final int FORMAT_VERSION = 1;
+
+	private final Path stateFile;
+	private final String environment;
+	private final Logger logger;
+	private Map<String, String> units;
+
+	/**
+	 * @param stateFile where to keep the state between runs, next to the sources jar
+	 * @param environment a hash of everything apart from the compiled jar that the sources depend on
+	 */
+	public DecompilationCache(Path stateFile, String environment, Logger logger) {
+		this.stateFile = stateFile;
+		this.environment = environment;
+		this.logger = logger;
+	}
+
+	/**
+	 * @return true if the compiled jar is exactly the one the last run produced, so the sources are up to date
+	 */
+	public boolean isUpToDate(Path compiledJar, Path sourcesDestination) throws IOException {
+		State state = readState();
+		return state != null && state.output != null && Files.exists(sourcesDestination) && state.output.equals(hashFile(compiledJar));
+	}
+
+	public void decompile(LoomDecompiler decompiler, Path compiledJar, Path sourcesDestination, Path linemapDestination, DecompilationMetadata metaData, Path workDir) throws IOException {
+		Map<String, Map<String, byte[]>> classes = readUnits(compiledJar);
+		hashUnits(classes);
+
+		State previous = readState();
+		// Clear the state first so that a failed run never leaves it pointing at stale sources
+		Files.deleteIfExists(stateFile);
+
+		if (previous == null || !Files.exists(sourcesDestination)) {
+			decompiler.decompile(compiledJar, sourcesDestination, linemapDestination, metaData);
+			return;
+		}
+
+		Set<String> changed = units.keySet().stream()
+				.filter(unit -> !units.get(unit).equals(previous.units.get(unit)))
+				.collect(Collectors.toSet());
+
+		logger.lifecycle(":decompiling {} changed classes, reusing {}", changed.size(), units.size() - changed.size());
+
+		Map<String, byte[]> changedClasses = new TreeMap<>();
+		Map<String, byte[]> unchangedClasses = new TreeMap<>();
+
+		for (Map.Entry<String, Map<String, byte[]>> unit : classes.entrySet()) {
+			(changed.contains(unit.getKey()) ? changedClasses : unchangedClasses).putAll(unit.getValue());
+		}
+
+		Path partialSources = workDir.resolve("changed-sources.jar");
+		Path partialLinemap = workDir.resolve("changed-sources.lmap");
+		Files.deleteIfExists(partialSources);
+		Files.deleteIfExists(partialLinemap);
+
+		if (!changed.isEmpty()) {
+			Path changedJar = workDir.resolve("changed.jar");
+			Path unchangedJar = workDir.resolve("unchanged.jar");
+			writeJar(changedJar, changedClasses);
+			writeJar(unchangedJar, unchangedClasses);
+
+			List<Path> libraries = new ArrayList<>(metaData.libraries);
+			libraries.add(unchangedJar);
+			decompiler.decompile(changedJar, partialSources, partialLinemap, new DecompilationMetadata(metaData.numberOfThreads, metaData.javaDocs, libraries));
+		}
+
+		// Units that are gone from the compiled jar are neither changed nor reused, so their old sources are dropped
+		Set<String> reused = units.keySet().stream()
+				.filter(unit -> !changed.contains(unit))
+				.collect(Collectors.toSet());
+
+		spliceSources(sourcesDestination, partialSources, reused);
+		spliceLinemap(linemapDestination, partialLinemap, reused);
+	}
+
+	/**
+	 * Prepares the state for sources that were obtained without decompiling, so that the next run can be incremental.
+	 *
+	 * @param compiledJar the compiled jar the sources belong to, before the line numbers have been remapped
+	 */
+	public void restored(Path compiledJar) throws IOException {
+		hashUnits(readUnits(compiledJar));
+		Files.deleteIfExists(stateFile);
+	}
+
+	private void hashUnits(Map<String, Map<String, byte[]>> classes) {
+		units = new HashMap<>();
+
+		for (Map.Entry<String, Map<String, byte[]>> unit : classes.entrySet()) {
+			Hasher hasher = Hashing.sha256().newHasher();
+
+			for (Map.Entry<String, byte[]> entry : unit.getValue().entrySet()) {
+				hasher.putString(entry.getKey(), StandardCharsets.UTF_8).putBytes(entry.getValue());
+			}
+
+			units.put(unit.getKey(), hasher.hash().toString());
+		}
+	}
+
+	/**
+	 * Records the state of this run once the compiled jar has its final contents.
+	 *
+	 * @param compiledJar the compiled jar, after the line numbers have been remapped
+	 */
+	public void save(Path compiledJar) throws IOException {
+		State state = new State();
+		state.version = FORMAT_VERSION;
+		state.environment = environment;
+		state.units = units;
+		state.output = hashFile(compiledJar);
+
+		try (Writer writer = Files.newBufferedWriter(stateFile, StandardCharsets.UTF_8)) {
+			LoomGradlePlugin.GSON.toJson(state, writer);
+		}
+	}
+
+	private State readState() {
+		if (!Files.exists(stateFile)) {
+			return null;
+		}
+
+		try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+			State state = LoomGradlePlugin.GSON.fromJson(reader, State.class);
+
+			if (state == null || state.version != FORMAT_VERSION || state.units == null || !environment.equals(state.environment)) {
+				return null;
+			}
+
+			return state;
+		} catch (IOException | RuntimeException e) {
+			logger.info(":could not read decompilation state, decompiling everything", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param reused the units whose previous sources are still current, anything else that is not a source file is kept as well
+	 */
+	private static void spliceSources(Path sources, Path partialSources, Set<String> reused) throws IOException {
+		Path tmp = sources.resolveSibling(sources.getFileName() + ".tmp");
+
+		try (ZipFile previous = new ZipFile(sources.toFile());
+				OutputStream os = Files.newOutputStream(tmp);
+				ZipOutputStream zos = new ZipOutputStream(os)) {
+			Enumeration<? extends ZipEntry> entries = previous.entries();
+
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+
+				if (entry.isDirectory()) {
+					continue;
+				}
+
+				if (!entry.getName().endsWith(".java") || reused.contains(getUnit(entry.getName().substring(0, entry.getName().length() - 5)))) {
+					copyEntry(previous, entry, zos);
+				}
+			}
+
+			if (Files.exists(partialSources)) {
+				try (ZipFile partial = new ZipFile(partialSources.toFile())) {
+					Enumeration<? extends ZipEntry> partialEntries = partial.entries();
+
+					while (partialEntries.hasMoreElements()) {
+						ZipEntry entry = partialEntries.nextElement();
+
+						if (!entry.isDirectory()) {
+							copyEntry(partial, entry, zos);
+						}
+					}
+				}
+			}
+		}
+
+		Files.move(tmp, sources, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void copyEntry(ZipFile zip, ZipEntry entry, ZipOutputStream zos) throws IOException {
+		zos.putNextEntry(new ZipEntry(entry.getName()));
+
+		try (InputStream is = zip.getInputStream(entry)) {
+			ByteStreams.copy(is, zos);
+		}
+
+		zos.closeEntry();
+	}
+
+	/**
+	 * Line maps consist of one block per top-level class: a header line with the class name,
+	 * followed by tab-indented line pairs.
+	 */
+	private static void spliceLinemap(Path linemap, Path partialLinemap, Set<String> reused) throws IOException {
+		Map<String, List<String>> blocks = new LinkedHashMap<>();
+		readLinemap(linemap, blocks);
+		blocks.keySet().retainAll(reused);
+
+		readLinemap(partialLinemap, blocks);
+
+		// Don't leave the blocks of changed or removed units behind for the line numbers to be remapped with
+		if (blocks.isEmpty()) {
+			Files.deleteIfExists(linemap);
+			return;
+		}
+
+		try (BufferedWriter writer = Files.newBufferedWriter(linemap, StandardCharsets.UTF_8)) {
+			for (List<String> block : blocks.values()) {
+				for (String line : block) {
+					writer.write(line);
+					writer.newLine();
+				}
+
+				writer.newLine();
+			}
+		}
+	}
+
+	private static void readLinemap(Path linemap, Map<String, List<String>> blocks) throws IOException {
+		if (!Files.exists(linemap)) {
+			return;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(linemap, StandardCharsets.UTF_8)) {
+			List<String> block = null;
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				if (line.charAt(0) != '\t') {
+					block = new ArrayList<>();
+					blocks.put(line.substring(0, line.indexOf('\t')), block);
+				}
+
+				if (block != null) {
+					block.add(line);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the classes of the jar, grouped by the top-level class they belong to
+	 */
+	private static Map<String, Map<String, byte[]>> readUnits(Path jar) throws IOException {
+		Map<String, Map<String, byte[]>> units = new TreeMap<>();
+
+		try (ZipFile zip = new ZipFile(jar.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+
+				if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+					continue;
+				}
+
+				try (InputStream is = zip.getInputStream(entry)) {
+					units.computeIfAbsent(getUnit(entry.getName().substring(0, entry.getName().length() - 6)), k -> new TreeMap<>())
+							.put(entry.getName(), ByteStreams.toByteArray(is));
+				}
+			}
+		}
+
+		return units;
+	}
+
+	/**
+	 * @param name a class or source file name, without its extension
+	 */
+	private static String getUnit(String name) {
+		int dollarPos = name.indexOf('$'); // Same assumption as LineNumberRemapper: only inner classes contain a dollar sign
+
+		return dollarPos >= 0 ? name.substring(0, dollarPos) : name;
+	}
+
+	private static void writeJar(Path jar, Map<String, byte[]> classes) throws IOException {
+		try (OutputStream os = Files.newOutputStream(jar); ZipOutputStream zos = new ZipOutputStream(os)) {
+			for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+				zos.putNextEntry(new ZipEntry(entry.getKey()));
+				zos.write(entry.getValue());
+				zos.closeEntry();
+			}
+		}
+	}
+
+	private static String hashFile(Path file) throws IOException {
+		return BaseEncoding.base16().lowerCase().encode(Checksum.sha256(file.toFile()));
+	}
+
+	private static class State {
+		int version;
+		String environment;
+		Map<String, String> units;
+		// The hash of the compiled jar after the last run, with remapped line numbers
+		String output;
+	}
+}
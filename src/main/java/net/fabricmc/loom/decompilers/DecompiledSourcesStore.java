@@ -0,0 +1,218 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import net.fabricmc.loom.util.Checksum;
+
+/**
+ * A content-addressed store of decompiled sources, shared by all projects using the same directory.
+ *
+ * <p>Entries are keyed by the SHA-256 of the compiled jar and the decompilation environment (decompiler,
+ * mappings and libraries), so the same Minecraft jar is only decompiled once per store. The directory can be
+ * on a network drive to share it between machines. An entry consists of the sources jar and its line map;
+ * the line map is published first and the jar last, so other builds never see a partial entry.
+ * The least recently used entries are evicted once the store grows past {@link #MAX_SIZE}.
+ */
+public final class DecompiledSourcesStore {
+	// Bump this when the decompiled output of the same inputs changes
+	private static final int FORMAT_VERSION = 1;
+	private static final long MAX_SIZE = 2L * 1024 * 1024 * 1024;
+
+	private final Path directory;
+	private final String environment;
+
+	public DecompiledSourcesStore(File directory, String environment) {
+		this.directory = directory.toPath();
+		this.environment = environment;
+	}
+
+	/**
+	 * Computes the store key of a compiled jar.
+	 *
+	 * @param compiledJar the mapped jar, before its line numbers have been remapped
+	 * @return the key as a hex string
+	 */
+	public String getKey(Path compiledJar) {
+		return Hashing.sha256().newHasher()
+				.putString(BaseEncoding.base16().lowerCase().encode(Checksum.sha256(compiledJar.toFile())), StandardCharsets.UTF_8)
+				.putString(environment, StandardCharsets.UTF_8)
+				.putInt(FORMAT_VERSION)
+				.hash()
+				.toString();
+	}
+
+	private Path getSources(String key) {
+		return directory.resolve(key.substring(0, 2)).resolve(key + "-sources.jar");
+	}
+
+	private Path getLinemap(String key) {
+		return directory.resolve(key.substring(0, 2)).resolve(key + "-sources.lmap");
+	}
+
+	/**
+	 * Copies a stored entry to the output files.
+	 *
+	 * @param key     the store key
+	 * @param sources the sources jar to write
+	 * @param linemap the line map to write, deleted if the entry has none
+	 * @return true if the entry was found and copied, false otherwise
+	 * @throws IOException if an {@link IOException} occurred while copying
+	 */
+	public boolean restore(String key, Path sources, Path linemap) throws IOException {
+		Path storedSources = getSources(key);
+		Path storedLinemap = getLinemap(key);
+
+		try {
+			Files.createDirectories(sources.getParent());
+			Files.copy(storedSources, sources, StandardCopyOption.REPLACE_EXISTING);
+
+			// An empty line map stands for none
+			if (Files.size(storedLinemap) > 0) {
+				Files.copy(storedLinemap, linemap, StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.deleteIfExists(linemap);
+			}
+
+			Files.setLastModifiedTime(storedSources, FileTime.fromMillis(System.currentTimeMillis()));
+			return true;
+		} catch (NoSuchFileException e) {
+			// Not stored, or evicted by another build in the meantime
+			Files.deleteIfExists(sources);
+			Files.deleteIfExists(linemap);
+			return false;
+		}
+	}
+
+	/**
+	 * Adds decompiled sources to the store.
+	 *
+	 * @param key     the store key
+	 * @param sources the sources jar
+	 * @param linemap the line map, which may not exist
+	 * @throws IOException if an {@link IOException} occurred while copying
+	 */
+	public void publish(String key, Path sources, Path linemap) throws IOException {
+		Path storedLinemap = getLinemap(key);
+		Files.createDirectories(storedLinemap.getParent());
+
+		if (Files.exists(linemap)) {
+			publishFile(linemap, storedLinemap);
+		} else {
+			Path temp = Files.createTempFile(storedLinemap.getParent(), key, ".tmp");
+			move(temp, storedLinemap);
+		}
+
+		publishFile(sources, getSources(key));
+	}
+
+	private static void publishFile(Path file, Path entry) throws IOException {
+		Path temp = Files.createTempFile(entry.getParent(), entry.getFileName().toString(), ".tmp");
+
+		try {
+			Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+			move(temp, entry);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void move(Path temp, Path entry) throws IOException {
+		try {
+			Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the store is smaller than {@link #MAX_SIZE}.
+	 *
+	 * @throws IOException if an {@link IOException} occurred while listing the entries
+	 */
+	public void evict() throws IOException {
+		if (Files.notExists(directory)) {
+			return;
+		}
+
+		List<Path> entries;
+
+		try (Stream<Path> stream = Files.walk(directory)) {
+			entries = stream.filter(path -> path.toString().endsWith("-sources.jar")).collect(Collectors.toCollection(ArrayList::new));
+		}
+
+		long size = 0;
+		Map<Path, Long> lastUsed = new HashMap<>();
+
+		for (Path entry : entries) {
+			size += entry.toFile().length() + getLinemapOf(entry).toFile().length();
+			lastUsed.put(entry, entry.toFile().lastModified());
+		}
+
+		if (size <= MAX_SIZE) {
+			return;
+		}
+
+		entries.sort(Comparator.comparingLong(lastUsed::get));
+
+		for (Path entry : entries) {
+			if (size <= MAX_SIZE) {
+				break;
+			}
+
+			long length = entry.toFile().length() + getLinemapOf(entry).toFile().length();
+
+			// The jar goes first, without it the line map is never read
+			if (Files.deleteIfExists(entry)) {
+				Files.deleteIfExists(getLinemapOf(entry));
+				size -= length;
+			}
+		}
+	}
+
+	private static Path getLinemapOf(Path sources) {
+		String name = sources.getFileName().toString();
+		return sources.resolveSibling(name.substring(0, name.length() - ".jar".length()) + ".lmap");
+	}
+}
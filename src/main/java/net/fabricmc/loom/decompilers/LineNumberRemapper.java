@@ -31,15 +31,21 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.FileVisitResult;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
+import com.google.common.io.ByteStreams;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
@@ -47,6 +53,7 @@ import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 
 import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.ThreadingUtils;
 import net.fabricmc.loom.util.gradle.ProgressLogger;
 
 /**
@@ -54,6 +61,9 @@ import net.fabricmc.loom.util.gradle.ProgressLogger;
  * Created by covers1624 on 18/02/19.
  */
 public class LineNumberRemapper {
+	// How many classes to remap between progress updates
+	private static final int PROGRESS_INTERVAL = 1000;
+
 	private final Map<String, RClass> lineMap = new HashMap<>();
 
 	public void readMappings(File lineMappings) {
@@ -71,15 +81,23 @@ public class LineNumberRemapper {
 					String[] segs = line.trim().split("\t");
 
 					if (line.charAt(0) != '\t') {
+						if (clazz != null) {
+							clazz.sort();
+						}
+
 						clazz = lineMap.computeIfAbsent(segs[0], RClass::new);
 						clazz.maxLine = Integer.parseInt(segs[1]);
 						clazz.maxLineDest = Integer.parseInt(segs[2]);
 					} else {
-						clazz.lineMap.put(Integer.parseInt(segs[0]), Integer.parseInt(segs[1]));
+						clazz.put(Integer.parseInt(segs[0]), Integer.parseInt(segs[1]));
 					}
 
 					i++;
 				}
+
+				if (clazz != null) {
+					clazz.sort();
+				}
 			} catch (Exception e) {
 				throw new RuntimeException(format("Exception reading mapping line @{0}: {1}", i, line), e);
 			}
@@ -88,53 +106,73 @@ public class LineNumberRemapper {
 		}
 	}
 
+	/**
+	 * Reads the input jar once, remaps the line numbers of its classes in parallel and writes the output jar
+	 * in the same entry order. Classes without line mappings and other files are copied as they are.
+	 */
 	public void process(ProgressLogger logger, Path input, Path output) throws IOException {
-		Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
-			@Override
-			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-				String rel = input.relativize(file).toString();
-				Path dst = output.resolve(rel);
-				Path parent = dst.getParent();
-
-				if (parent != null) {
-					Files.createDirectories(parent);
+		List<ZipEntry> entries = new ArrayList<>();
+		List<byte[]> contents = new ArrayList<>();
+
+		try (ZipFile zip = new ZipFile(input.toFile())) {
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+
+			while (zipEntries.hasMoreElements()) {
+				ZipEntry entry = zipEntries.nextElement();
+				entries.add(entry);
+
+				try (InputStream is = zip.getInputStream(entry)) {
+					contents.add(ByteStreams.toByteArray(is));
 				}
+			}
+		}
 
-				String fName = file.getFileName().toString();
+		AtomicInteger remapped = new AtomicInteger();
+		List<Integer> indices = new ArrayList<>(entries.size());
 
-				if (fName.endsWith(".class")) {
-					if (Files.exists(dst)) {
-						Files.delete(dst);
-					}
+		for (int i = 0; i < entries.size(); i++) {
+			indices.add(i);
+		}
 
-					String idx = rel.substring(0, rel.length() - 6);
+		List<byte[]> results = ThreadingUtils.get(indices, i -> {
+			String name = entries.get(i).getName();
 
-					if (logger != null) {
-						logger.progress("Remapping " + idx);
-					}
+			if (!name.endsWith(".class")) {
+				return contents.get(i);
+			}
 
-					int dollarPos = idx.indexOf('$'); //This makes the assumption that only Java classes are to be remapped.
+			String idx = name.substring(0, name.length() - 6);
+			int dollarPos = idx.indexOf('$'); //This makes the assumption that only Java classes are to be remapped.
 
-					if (dollarPos >= 0) {
-						idx = idx.substring(0, dollarPos);
-					}
+			if (dollarPos >= 0) {
+				idx = idx.substring(0, dollarPos);
+			}
 
-					if (lineMap.containsKey(idx)) {
-						try (InputStream is = Files.newInputStream(file)) {
-							ClassReader reader = new ClassReader(is);
-							ClassWriter writer = new ClassWriter(0);
+			RClass rClass = lineMap.get(idx);
 
-							reader.accept(new LineNumberVisitor(Constants.ASM_VERSION, writer, lineMap.get(idx)), 0);
-							Files.write(dst, writer.toByteArray());
-						}
-					}
-				} else {
-					Files.copy(file, dst, StandardCopyOption.REPLACE_EXISTING);
-				}
+			if (rClass == null) {
+				return contents.get(i);
+			}
 
-				return FileVisitResult.CONTINUE;
+			if (logger != null && remapped.incrementAndGet() % PROGRESS_INTERVAL == 0) {
+				logger.progress("Remapped " + remapped.get() + " classes");
 			}
+
+			ClassReader reader = new ClassReader(contents.get(i));
+			ClassWriter writer = new ClassWriter(0);
+			reader.accept(new LineNumberVisitor(Constants.ASM_VERSION, writer, rClass), 0);
+			return writer.toByteArray();
 		});
+
+		try (OutputStream os = Files.newOutputStream(output); ZipOutputStream zos = new ZipOutputStream(os)) {
+			for (int i = 0; i < entries.size(); i++) {
+				ZipEntry entry = new ZipEntry(entries.get(i).getName());
+				entry.setTime(entries.get(i).getTime());
+				zos.putNextEntry(entry);
+				zos.write(results.get(i));
+				zos.closeEntry();
+			}
+		}
 	}
 
 	private static class LineNumberVisitor extends ClassVisitor {
@@ -150,21 +188,7 @@ public class LineNumberRemapper {
 			return new MethodVisitor(api, super.visitMethod(access, name, descriptor, signature, exceptions)) {
 				@Override
 				public void visitLineNumber(int line, Label start) {
-					int tLine = line;
-
-					if (tLine <= 0) {
-						super.visitLineNumber(line, start);
-					} else if (tLine >= rClass.maxLine) {
-						super.visitLineNumber(rClass.maxLineDest, start);
-					} else {
-						Integer matchedLine = null;
-
-						while (tLine <= rClass.maxLine && ((matchedLine = rClass.lineMap.get(tLine)) == null)) {
-							tLine++;
-						}
-
-						super.visitLineNumber(matchedLine != null ? matchedLine : rClass.maxLineDest, start);
-					}
+					super.visitLineNumber(line <= 0 ? line : rClass.map(line), start);
 				}
 			};
 		}
@@ -174,10 +198,67 @@ public class LineNumberRemapper {
 		private final String name;
 		private int maxLine;
 		private int maxLineDest;
-		private final Map<Integer, Integer> lineMap = new HashMap<>();
+		// Sorted source lines and the lines they map to, at the same index
+		private int[] lines = new int[16];
+		private int[] dests = new int[16];
+		private int size;
 
 		private RClass(String name) {
 			this.name = name;
 		}
+
+		private void put(int line, int dest) {
+			if (size == lines.length) {
+				lines = Arrays.copyOf(lines, size * 2);
+				dests = Arrays.copyOf(dests, size * 2);
+			}
+
+			lines[size] = line;
+			dests[size] = dest;
+			size++;
+		}
+
+		/**
+		 * Sorts the mappings by source line, the decompilers usually write them in order already.
+		 */
+		private void sort() {
+			boolean sorted = true;
+
+			for (int i = 1; i < size && sorted; i++) {
+				sorted = lines[i - 1] <= lines[i];
+			}
+
+			if (!sorted) {
+				long[] pairs = new long[size];
+
+				for (int i = 0; i < size; i++) {
+					pairs[i] = (long) lines[i] << 32 | dests[i] & 0xFFFFFFFFL;
+				}
+
+				Arrays.sort(pairs);
+
+				for (int i = 0; i < size; i++) {
+					lines[i] = (int) (pairs[i] >>> 32);
+					dests[i] = (int) pairs[i];
+				}
+			}
+		}
+
+		/**
+		 * Maps a line to the destination of the nearest mapped line at or after it.
+		 */
+		private int map(int line) {
+			if (line >= maxLine) {
+				return maxLineDest;
+			}
+
+			int index = Arrays.binarySearch(lines, 0, size, line);
+
+			if (index < 0) {
+				index = -index - 1;
+			}
+
+			return index < size ? dests[index] : maxLineDest;
+		}
 	}
 }
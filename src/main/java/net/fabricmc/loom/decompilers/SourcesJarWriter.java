@@ -0,0 +1,244 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Writes decompiled sources into a jar without making the decompiler threads wait on each other.
+ *
+ * <p>Entries are compressed by the thread that adds them and kept in memory; when the writer is closed
+ * the compressed entries are written out in name order together with their directories, and the line
+ * map is written in the same order. The output is therefore the same regardless of thread scheduling.
+ */
+public class SourcesJarWriter implements Closeable {
+	// The manifest has to come first for JarInputStream to find it, everything else is sorted by name
+	private static final Comparator<String> ENTRY_ORDER = Comparator.comparingInt((String name) -> name.equals("META-INF/") ? 0 : name.equals(JarFile.MANIFEST_NAME) ? 1 : 2)
+			.thenComparing(Comparator.naturalOrder());
+	private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+	private final File output;
+	@Nullable
+	private final File lineMapFile;
+	private final NavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>(ENTRY_ORDER);
+
+	public SourcesJarWriter(File output, @Nullable File lineMapFile, @Nullable Manifest manifest) throws IOException {
+		this.output = output;
+		this.lineMapFile = lineMapFile;
+
+		if (manifest != null) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			manifest.write(bytes);
+			add(JarFile.MANIFEST_NAME, bytes.toByteArray(), null);
+		}
+	}
+
+	/**
+	 * Compresses and queues an entry, may be called from any thread.
+	 *
+	 * @param lineMap the line map block of the class, or null if there is none
+	 */
+	public void add(String name, byte[] data, @Nullable String lineMap) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		Deflater deflater = DEFLATER.get();
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+		byte[] buffer = new byte[8192];
+
+		while (!deflater.finished()) {
+			int length = deflater.deflate(buffer);
+			compressed.write(buffer, 0, length);
+		}
+
+		entries.put(name, new Entry(compressed.toByteArray(), data.length, (int) crc.getValue(), lineMap));
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Add the parent directories of all entries, they sort in front of their contents
+		TreeSet<String> directories = new TreeSet<>();
+
+		for (String name : entries.keySet()) {
+			for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+				directories.add(name.substring(0, i + 1));
+			}
+		}
+
+		for (String directory : directories) {
+			entries.putIfAbsent(directory, Entry.DIRECTORY);
+		}
+
+		if (entries.size() >= 0xFFFF) {
+			throw new IOException("Too many entries for a jar without zip64 support: " + entries.size());
+		}
+
+		// Don't leave a line map behind if there are no line numbers, so that a stale one isn't applied
+		boolean hasLineMap = lineMapFile != null && entries.values().stream().anyMatch(entry -> entry.lineMap != null);
+
+		if (lineMapFile != null && !hasLineMap) {
+			Files.deleteIfExists(lineMapFile.toPath());
+		}
+
+		int time = toDosTime(System.currentTimeMillis());
+		ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+		DataOutputStream cd = new DataOutputStream(centralDirectory);
+
+		try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(output.toPath()), 1 << 16);
+				Writer lineMapWriter = hasLineMap ? Files.newBufferedWriter(lineMapFile.toPath(), StandardCharsets.UTF_8) : null) {
+			long offset = 0;
+
+			for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+				byte[] name = mapEntry.getKey().getBytes(StandardCharsets.UTF_8);
+				Entry entry = mapEntry.getValue();
+				int method = entry == Entry.DIRECTORY ? 0 : 8;
+
+				// Local file header
+				ByteArrayOutputStream header = new ByteArrayOutputStream(30 + name.length);
+				DataOutputStream lh = new DataOutputStream(header);
+				writeInt(lh, 0x04034b50);
+				writeShort(lh, 20);
+				writeShort(lh, 0x0800); // UTF-8 names
+				writeShort(lh, method);
+				writeInt(lh, time);
+				writeInt(lh, entry.crc);
+				writeInt(lh, entry.data.length);
+				writeInt(lh, entry.size);
+				writeShort(lh, name.length);
+				writeShort(lh, 0);
+				lh.write(name);
+				header.writeTo(os);
+				os.write(entry.data);
+
+				writeInt(cd, 0x02014b50);
+				writeShort(cd, 20);
+				writeShort(cd, 20);
+				writeShort(cd, 0x0800);
+				writeShort(cd, method);
+				writeInt(cd, time);
+				writeInt(cd, entry.crc);
+				writeInt(cd, entry.data.length);
+				writeInt(cd, entry.size);
+				writeShort(cd, name.length);
+				writeShort(cd, 0); // Extra field length
+				writeShort(cd, 0); // Comment length
+				writeShort(cd, 0); // Disk number
+				writeShort(cd, 0); // Internal attributes
+				writeInt(cd, 0); // External attributes
+				writeInt(cd, (int) offset);
+				cd.write(name);
+
+				offset += header.size() + entry.data.length;
+
+				if (offset > 0xFFFFFFFFL) {
+					throw new IOException("Sources jar is too large without zip64 support");
+				}
+
+				if (lineMapWriter != null && entry.lineMap != null) {
+					lineMapWriter.write(entry.lineMap);
+				}
+			}
+
+			centralDirectory.writeTo(os);
+
+			// End of central directory record
+			DataOutputStream eocd = new DataOutputStream(os);
+			writeInt(eocd, 0x06054b50);
+			writeShort(eocd, 0);
+			writeShort(eocd, 0);
+			writeShort(eocd, entries.size());
+			writeShort(eocd, entries.size());
+			writeInt(eocd, centralDirectory.size());
+			writeInt(eocd, (int) offset);
+			writeShort(eocd, 0);
+			eocd.flush();
+		}
+
+		entries.clear();
+	}
+
+	// Zip headers are little endian, DataOutputStream is big endian
+	private static void writeShort(DataOutputStream out, int value) throws IOException {
+		out.writeShort(Short.reverseBytes((short) value));
+	}
+
+	private static void writeInt(DataOutputStream out, int value) throws IOException {
+		out.writeInt(Integer.reverseBytes(value));
+	}
+
+	private static int toDosTime(long millis) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(millis);
+
+		return (calendar.get(Calendar.YEAR) - 1980) << 25
+				| (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16
+				| calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5
+				| calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	private static final class Entry {
+		static final Entry DIRECTORY = new Entry(new byte[0], 0, 0, null);
+
+		final byte[] data;
+		final int size;
+		final int crc;
+		@Nullable
+		final String lineMap;
+
+		Entry(byte[] data, int size, int crc, @Nullable String lineMap) {
+			this.data = data;
+			this.size = size;
+			this.crc = crc;
+			this.lineMap = lineMap;
+		}
+	}
+}
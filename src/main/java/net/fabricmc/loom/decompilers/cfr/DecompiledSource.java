@@ -0,0 +1,246 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.cfr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.benf.cfr.reader.api.SinkReturns;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import net.fabricmc.loom.decompilers.fernflower.TinyJavadocProvider;
+
+/**
+ * The decompiled source of a top-level class and its inner classes, with the line numbers CFR reported for it.
+ *
+ * <p>CFR only hands out plain text, so javadocs are inserted by finding the declarations in that text.
+ * Methods with code are found just above their first line, which CFR reports with the exact descriptor;
+ * anything else only gets its javadoc if its declaration is unambiguous within the file.
+ */
+final class DecompiledSource {
+	private static final String MODIFIERS = "(?:(?:public|protected|private|static|final|abstract|default|synchronized|native|strictfp|transient|volatile)\\s+)*";
+	// A type followed by the name, but not a statement that happens to look like one
+	private static final String TYPE = "(?!return\\b|throw\\b|new\\b|else\\b)[\\w.$<>\\[\\], ?]+\\s+";
+	// How far above the first line of a method its declaration may be
+	private static final int MAX_DECLARATION_DISTANCE = 32;
+
+	private final String name;
+	private final List<String> lines;
+	private final List<SinkReturns.LineNumberMapping> lineNumbers = new ArrayList<>();
+	// Comment lines to insert before the line at the index
+	private final NavigableMap<Integer, List<String>> insertions = new TreeMap<>();
+
+	DecompiledSource(String name, String java) {
+		this.name = name;
+		this.lines = Arrays.asList(java.split("\n", -1));
+	}
+
+	void addLineNumbers(SinkReturns.LineNumberMapping mapping) {
+		lineNumbers.add(mapping);
+	}
+
+	/**
+	 * @param classes the bytes of this class and its inner classes, by internal name
+	 */
+	void addJavadocs(TinyJavadocProvider javadocs, Map<String, byte[]> classes) {
+		Set<String> documented = new HashSet<>();
+
+		for (SinkReturns.LineNumberMapping mapping : lineNumbers) {
+			String owner = mapping.getClassName().replace('.', '/');
+			String doc = javadocs.getMethodDoc(owner, mapping.methodName(), mapping.methodDescriptor());
+
+			if (doc == null || mapping.getMappings() == null || mapping.getMappings().isEmpty() || mapping.methodName().equals("<clinit>")) {
+				continue;
+			}
+
+			Pattern declaration = Pattern.compile("^\\s*" + MODIFIERS + "(?:<.*>\\s+)?(?:" + TYPE + ")?" + Pattern.quote(getSourceName(owner, mapping.methodName())) + "\\(.*");
+			int firstLine = mapping.getMappings().values().stream().min(Integer::compare).get() - 1;
+
+			for (int i = firstLine - 1; i >= 0 && i >= firstLine - MAX_DECLARATION_DISTANCE; i--) {
+				if (declaration.matcher(lines.get(i)).matches()) {
+					insertJavadoc(i, doc);
+					documented.add(owner + mapping.methodName() + mapping.methodDescriptor());
+					break;
+				}
+			}
+		}
+
+		for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+			String owner = entry.getKey();
+			String simpleName = owner.substring(Math.max(owner.lastIndexOf('/'), owner.lastIndexOf('$')) + 1);
+
+			insertUnique(Pattern.compile("^\\s*" + MODIFIERS + "(?:class|interface|enum|@interface)\\s+" + Pattern.quote(simpleName) + "\\b.*"), javadocs.getClassDoc(owner));
+
+			new ClassReader(entry.getValue()).accept(new ClassVisitor(Opcodes.ASM9) {
+				@Override
+				public FieldVisitor visitField(int access, String fieldName, String descriptor, String signature, Object value) {
+					if ((access & Opcodes.ACC_ENUM) == 0) {
+						insertUnique(Pattern.compile("^\\s*" + MODIFIERS + TYPE + Pattern.quote(fieldName) + "(?:\\s*=.*)?;\\s*$"), javadocs.getFieldDoc(owner, fieldName, descriptor));
+					}
+
+					return null;
+				}
+
+				@Override
+				public MethodVisitor visitMethod(int access, String methodName, String descriptor, String signature, String[] exceptions) {
+					if (!methodName.equals("<clinit>") && !documented.contains(owner + methodName + descriptor)) {
+						insertUnique(Pattern.compile("^\\s*" + MODIFIERS + "(?:<.*>\\s+)?(?:" + TYPE + ")?" + Pattern.quote(getSourceName(owner, methodName)) + "\\(.*[{;]\\s*$"), javadocs.getMethodDoc(owner, methodName, descriptor));
+					}
+
+					return null;
+				}
+			}, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		}
+	}
+
+	private static String getSourceName(String owner, String methodName) {
+		return methodName.equals("<init>") ? owner.substring(Math.max(owner.lastIndexOf('/'), owner.lastIndexOf('$')) + 1) : methodName;
+	}
+
+	private void insertUnique(Pattern declaration, String doc) {
+		if (doc == null) {
+			return;
+		}
+
+		int match = -1;
+
+		for (int i = 0; i < lines.size(); i++) {
+			if (declaration.matcher(lines.get(i)).matches()) {
+				if (match >= 0) {
+					return;
+				}
+
+				match = i;
+			}
+		}
+
+		if (match >= 0) {
+			insertJavadoc(match, doc);
+		}
+	}
+
+	private void insertJavadoc(int line, String doc) {
+		String declaration = lines.get(line);
+		String indent = declaration.substring(0, declaration.length() - declaration.trim().length());
+
+		// Go above any annotations
+		while (line > 0 && lines.get(line - 1).startsWith(indent + "@")) {
+			line--;
+		}
+
+		if (insertions.containsKey(line)) {
+			return;
+		}
+
+		List<String> comment = new ArrayList<>();
+		comment.add(indent + "/**");
+
+		for (String docLine : doc.replace("*/", "*&#47;").split("\n")) {
+			comment.add(docLine.isEmpty() ? indent + " *" : indent + " * " + docLine);
+		}
+
+		comment.add(indent + " */");
+		insertions.put(line, comment);
+	}
+
+	String getSource() {
+		StringBuilder builder = new StringBuilder();
+
+		for (int i = 0; i < lines.size(); i++) {
+			for (String comment : insertions.getOrDefault(i, Collections.emptyList())) {
+				builder.append(comment).append('\n');
+			}
+
+			builder.append(lines.get(i));
+
+			if (i < lines.size() - 1) {
+				builder.append('\n');
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * @return the line map block of this class in the format {@link net.fabricmc.loom.decompilers.LineNumberRemapper}
+	 * reads, accounting for inserted javadocs, or null if CFR reported no line numbers
+	 */
+	String getLineMap() {
+		NavigableMap<Integer, Integer> lineMap = new TreeMap<>();
+
+		for (SinkReturns.LineNumberMapping mapping : lineNumbers) {
+			NavigableMap<Integer, Integer> classFileLines = mapping.getClassFileMappings();
+
+			if (classFileLines == null || mapping.getMappings() == null) {
+				continue;
+			}
+
+			// Both are keyed by bytecode offset
+			for (Map.Entry<Integer, Integer> entry : mapping.getMappings().entrySet()) {
+				Integer src = classFileLines.get(entry.getKey());
+
+				if (src != null && entry.getValue() != null) {
+					lineMap.merge(src, shift(entry.getValue()), Math::min);
+				}
+			}
+		}
+
+		if (lineMap.isEmpty()) {
+			return null;
+		}
+
+		StringBuilder builder = new StringBuilder();
+		int maxLineDest = 0;
+
+		for (Map.Entry<Integer, Integer> entry : lineMap.entrySet()) {
+			maxLineDest = Math.max(maxLineDest, entry.getValue());
+			builder.append('\t').append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+		}
+
+		return name + "\t" + lineMap.lastKey() + "\t" + maxLineDest + "\n" + builder + "\n";
+	}
+
+	private int shift(int line) {
+		int shift = 0;
+
+		for (List<String> comment : insertions.headMap(line - 1, true).values()) {
+			shift += comment.size();
+		}
+
+		return line + shift;
+	}
+}
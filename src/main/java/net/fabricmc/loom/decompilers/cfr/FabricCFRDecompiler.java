@@ -27,17 +27,19 @@ package net.fabricmc.loom.decompilers.cfr;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -45,8 +47,6 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
@@ -54,6 +54,7 @@ import java.util.zip.ZipFile;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import org.benf.cfr.reader.api.CfrDriver;
 import org.benf.cfr.reader.api.ClassFileSource;
@@ -68,8 +69,17 @@ import org.gradle.internal.service.ServiceRegistry;
 
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
 import net.fabricmc.loom.api.decompilers.LoomDecompiler;
+import net.fabricmc.loom.decompilers.SourcesJarWriter;
+import net.fabricmc.loom.decompilers.fernflower.TinyJavadocProvider;
 
 public class FabricCFRDecompiler implements LoomDecompiler {
+	private static final Map<String, String> OPTIONS = ImmutableMap.of(
+			"renameillegalidents", "true",
+			"trackbytecodeloc", "true"
+	);
+	// Classes analysed together share CFR's type cache, so each worker takes a batch at a time
+	private static final int BATCH_SIZE = 256;
+
 	private final Project project;
 
 	public FabricCFRDecompiler(Project project) {
@@ -83,8 +93,6 @@ public class FabricCFRDecompiler implements LoomDecompiler {
 
 	@Override
 	public void decompile(Path compiledJar, Path sourcesDestination, Path linemapDestination, DecompilationMetadata metaData) {
-		project.getLogger().warn("!!!! The CFR decompiler support is currently incomplete, line numbers will not match up and there will be no javadocs in the generated source.");
-
 		// Setups the multi threaded logger, the thread id is used as the key to the ProgressLogger's
 		ServiceRegistry registry = ((ProjectInternal) project).getServices();
 		ProgressLoggerFactory factory = registry.get(ProgressLoggerFactory.class);
@@ -102,140 +110,186 @@ public class FabricCFRDecompiler implements LoomDecompiler {
 
 		Manifest manifest = new Manifest();
 		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
-		Set<String> addedDirectories = new HashSet<>();
-
-		try (OutputStream fos = Files.newOutputStream(sourcesDestination); JarOutputStream jos = new JarOutputStream(fos, manifest); ZipFile inputZip = new ZipFile(compiledJar.toFile())) {
-			CfrDriver driver = new CfrDriver.Builder()
-					.withOptions(ImmutableMap.of(
-							"renameillegalidents", "true",
-							"trackbytecodeloc", "true"
-					))
-					.withClassFileSource(new ClassFileSource() {
-						@Override
-						public void informAnalysisRelativePathDetail(String usePath, String classFilePath) {
-						}
-
-						@Override
-						public Collection<String> addJar(String jarPath) {
-							return null;
-						}
+		TinyJavadocProvider javadocs = new TinyJavadocProvider(metaData.javaDocs.toFile());
+		List<ZipFile> libraries = new ArrayList<>();
+
+		try (SourcesJarWriter writer = new SourcesJarWriter(sourcesDestination.toFile(), linemapDestination.toFile(), manifest); ZipFile inputZip = new ZipFile(compiledJar.toFile())) {
+			// Where to find every class, the input jar takes precedence over the libraries
+			Map<String, ZipFile> classFiles = new HashMap<>();
+
+			for (Path library : metaData.libraries) {
+				if (Files.isRegularFile(library)) {
+					ZipFile libraryZip = new ZipFile(library.toFile());
+					libraries.add(libraryZip);
+					indexClasses(libraryZip, classFiles);
+				}
+			}
 
-						@Override
-						public String getPossiblyRenamedPath(String path) {
-							return path;
-						}
+			Set<String> inputClasses = indexClasses(inputZip, classFiles);
+			ClassFileSource classFileSource = new ClassFileSource() {
+				@Override
+				public void informAnalysisRelativePathDetail(String usePath, String classFilePath) {
+				}
 
-						@Override
-						public Pair<byte[], String> getClassFileContent(String path) throws IOException {
-							ZipEntry zipEntry = inputZip.getEntry(path);
+				@Override
+				public Collection<String> addJar(String jarPath) {
+					return null;
+				}
 
-							if (zipEntry == null) {
-								throw new FileNotFoundException(path);
-							}
+				@Override
+				public String getPossiblyRenamedPath(String path) {
+					return path;
+				}
 
-							try (InputStream inputStream = inputZip.getInputStream(zipEntry)) {
-								return Pair.make(ByteStreams.toByteArray(inputStream), path);
-							}
-						}
-					})
-					.withOutputSink(new OutputSinkFactory() {
-						@Override
-						public List<SinkClass> getSupportedSinks(SinkType sinkType, Collection<SinkClass> available) {
-							switch (sinkType) {
-								case PROGRESS:
-									return Collections.singletonList(SinkClass.STRING);
-								case JAVA:
-									return Collections.singletonList(SinkClass.DECOMPILED);
-								default:
-									return Collections.emptyList();
-							}
-						}
+				@Override
+				public Pair<byte[], String> getClassFileContent(String path) throws IOException {
+					ZipFile zip = classFiles.get(path);
 
-						@SuppressWarnings("unchecked")
-						@Override
-						public <T> Sink<T> getSink(SinkType sinkType, SinkClass sinkClass) {
-							switch (sinkType) {
-								case PROGRESS:
-									return (p) -> project.getLogger().debug((String) p);
-								case JAVA:
-									return (Sink<T>) decompiledSink(jos, addedDirectories);
-								case EXCEPTION:
-									return (e) -> project.getLogger().error((String) e);
-							}
-
-							return null;
-						}
-					})
-					.build();
+					if (zip == null) {
+						throw new FileNotFoundException(path);
+					}
 
-			List<String> classes = Collections.list(inputZip.entries()).stream()
-									.map(ZipEntry::getName)
-									.filter(input -> input.endsWith(".class"))
-									.collect(Collectors.toList());
+					try (InputStream inputStream = zip.getInputStream(zip.getEntry(path))) {
+						return Pair.make(ByteStreams.toByteArray(inputStream), path);
+					}
+				}
+			};
+
+			// Inner classes are decompiled as part of their outer class
+			List<String> classes = inputClasses.stream()
+					.filter(input -> input.indexOf('$') < 0 || !inputClasses.contains(input.substring(0, input.lastIndexOf('$')) + ".class"))
+					.sorted()
+					.collect(Collectors.toList());
+			Map<String, List<String>> classesByUnit = inputClasses.stream()
+					.collect(Collectors.groupingBy(input -> {
+						int dollarPos = input.indexOf('$');
+						return dollarPos >= 0 ? input.substring(0, dollarPos) : input.substring(0, input.length() - 6);
+					}));
 
 			ExecutorService executorService = Executors.newFixedThreadPool(metaData.numberOfThreads);
 			List<Future<?>> futures = new LinkedList<>();
 
-			for (String clazz : classes) {
+			for (List<String> batch : Lists.partition(classes, BATCH_SIZE)) {
 				futures.add(executorService.submit(() -> {
-					loggerMap.computeIfAbsent(Thread.currentThread().getId(), createLogger).progress(clazz);
-					driver.analyse(Collections.singletonList(clazz));
+					loggerMap.computeIfAbsent(Thread.currentThread().getId(), createLogger).progress(batch.get(0));
+					decompileBatch(batch, classFileSource, inputZip, classesByUnit, javadocs, writer);
+					return null;
 				}));
 			}
 
 			for (Future<?> future : futures) {
 				future.get();
 			}
+
+			executorService.shutdown();
 		} catch (IOException | InterruptedException | ExecutionException e) {
 			throw new RuntimeException("Failed to decompile", e);
 		} finally {
 			loggerMap.forEach((threadId, progressLogger) -> progressLogger.completed());
+
+			for (ZipFile library : libraries) {
+				try {
+					library.close();
+				} catch (IOException e) {
+					project.getLogger().debug("Failed to close " + library.getName(), e);
+				}
+			}
 		}
 	}
 
-	private static OutputSinkFactory.Sink<SinkReturns.Decompiled> decompiledSink(JarOutputStream jos, Set<String> addedDirectories) {
-		return decompiled -> {
-			String filename = decompiled.getPackageName().replace('.', '/');
-			if (!filename.isEmpty()) filename += "/";
-			filename += decompiled.getClassName() + ".java";
-
-			byte[] data = decompiled.getJava().getBytes(Charsets.UTF_8);
+	/**
+	 * Decompiles a batch of top-level classes in one CFR analysis, then adds javadocs and line maps to their sources.
+	 */
+	private void decompileBatch(List<String> batch, ClassFileSource classFileSource, ZipFile inputZip, Map<String, List<String>> classesByUnit, TinyJavadocProvider javadocs, SourcesJarWriter writer) throws IOException {
+		Map<String, DecompiledSource> sources = new TreeMap<>();
+		Map<String, List<SinkReturns.LineNumberMapping>> lineNumbers = new HashMap<>();
+
+		CfrDriver driver = new CfrDriver.Builder()
+				.withOptions(OPTIONS)
+				.withClassFileSource(classFileSource)
+				.withOutputSink(new OutputSinkFactory() {
+					@Override
+					public List<SinkClass> getSupportedSinks(SinkType sinkType, Collection<SinkClass> available) {
+						switch (sinkType) {
+							case PROGRESS:
+								return Collections.singletonList(SinkClass.STRING);
+							case JAVA:
+								return Collections.singletonList(SinkClass.DECOMPILED);
+							case LINENUMBER:
+								return Collections.singletonList(SinkClass.LINE_NUMBER_MAPPING);
+							default:
+								return Collections.emptyList();
+						}
+					}
+
+					@SuppressWarnings("unchecked")
+					@Override
+					public <T> Sink<T> getSink(SinkType sinkType, SinkClass sinkClass) {
+						switch (sinkType) {
+							case PROGRESS:
+								return (p) -> project.getLogger().debug((String) p);
+							case JAVA:
+								return (Sink<T>) (Sink<SinkReturns.Decompiled>) decompiled -> {
+									String name = decompiled.getPackageName().replace('.', '/');
+									if (!name.isEmpty()) name += "/";
+									name += decompiled.getClassName();
+
+									sources.put(name, new DecompiledSource(name, decompiled.getJava()));
+								};
+							case LINENUMBER:
+								return (Sink<T>) (Sink<SinkReturns.LineNumberMapping>) mapping -> {
+									String name = mapping.getClassName().replace('.', '/');
+									int dollarPos = name.indexOf('$');
+
+									lineNumbers.computeIfAbsent(dollarPos >= 0 ? name.substring(0, dollarPos) : name, k -> new ArrayList<>()).add(mapping);
+								};
+							case EXCEPTION:
+								return (e) -> project.getLogger().error((String) e);
+						}
 
-			writeToJar(filename, data, jos, addedDirectories);
-		};
-	}
+						return null;
+					}
+				})
+				.build();
 
-	// TODO move to task queue?
-	private static synchronized void writeToJar(String filename, byte[] data, JarOutputStream jos, Set<String> addedDirectories) {
-		String[] path = filename.split("/");
-		String pathPart = "";
+		driver.analyse(batch);
 
-		for (int i = 0; i < path.length - 1; i++) {
-			pathPart += path[i] + "/";
+		for (Map.Entry<String, DecompiledSource> entry : sources.entrySet()) {
+			String name = entry.getKey();
+			DecompiledSource source = entry.getValue();
+			lineNumbers.getOrDefault(name, Collections.emptyList()).forEach(source::addLineNumbers);
 
-			if (addedDirectories.add(pathPart)) {
-				JarEntry entry = new JarEntry(pathPart);
-				entry.setTime(new Date().getTime());
+			Map<String, byte[]> classes = new HashMap<>();
 
-				try {
-					jos.putNextEntry(entry);
-					jos.closeEntry();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
+			for (String classFile : classesByUnit.getOrDefault(name, Collections.emptyList())) {
+				try (InputStream inputStream = inputZip.getInputStream(inputZip.getEntry(classFile))) {
+					classes.put(classFile.substring(0, classFile.length() - 6), ByteStreams.toByteArray(inputStream));
 				}
 			}
-		}
 
-		JarEntry entry = new JarEntry(filename);
-		entry.setTime(new Date().getTime());
-		entry.setSize(data.length);
+			source.addJavadocs(javadocs, classes);
+			writer.add(name + ".java", source.getSource().getBytes(Charsets.UTF_8), source.getLineMap());
+		}
+	}
 
-		try {
-			jos.putNextEntry(entry);
-			jos.write(data);
-			jos.closeEntry();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+	/**
+	 * Adds the classes of the zip to the index, replacing classes with the same name.
+	 *
+	 * @return the class file names in the zip
+	 */
+	private static Set<String> indexClasses(ZipFile zip, Map<String, ZipFile> classFiles) {
+		Set<String> classes = new HashSet<>();
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+
+		while (entries.hasMoreElements()) {
+			String name = entries.nextElement().getName();
+
+			if (name.endsWith(".class")) {
+				classFiles.put(name, zip);
+				classes.add(name);
+			}
 		}
+
+		return classes;
 	}
 }
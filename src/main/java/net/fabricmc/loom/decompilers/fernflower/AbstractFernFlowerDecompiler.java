@@ -26,14 +26,41 @@ package net.fabricmc.loom.decompilers.fernflower;
 
 import static java.text.MessageFormat.format;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
-import java.util.function.Supplier;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
+import com.google.common.io.ByteStreams;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.VMOption;
 import org.gradle.api.Project;
 import org.gradle.api.internal.project.ProjectInternal;
 import org.gradle.api.logging.LogLevel;
@@ -42,14 +69,30 @@ import org.gradle.internal.logging.progress.ProgressLoggerFactory;
 import org.gradle.internal.service.ServiceRegistry;
 import org.gradle.process.ExecResult;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
 
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
 import net.fabricmc.loom.api.decompilers.LoomDecompiler;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.ConsumingOutputStream;
+import net.fabricmc.loom.util.DeletingFileVisitor;
 import net.fabricmc.loom.util.OperatingSystem;
+import net.fabricmc.loom.util.ThreadingUtils;
 
 public abstract class AbstractFernFlowerDecompiler implements LoomDecompiler {
+	private static final long MEGABYTE = 1024 * 1024;
+	// A worker below this can't hold the libraries and its share of the classes
+	private static final long MIN_WORKER_HEAP = 1536 * MEGABYTE;
+	private static final long MAX_WORKER_HEAP = 3072 * MEGABYTE;
+	// Fewer threads per worker give more workers, which scale better than FernFlower's own thread pool
+	private static final int THREADS_PER_WORKER = 4;
+	// Memory limits of the cgroup the build runs in, for cgroup v2 and v1 respectively
+	private static final String[] CGROUP_MEMORY_LIMITS = {"/sys/fs/cgroup/memory.max", "/sys/fs/cgroup/memory/memory.limit_in_bytes"};
+
 	private final Project project;
 
 	protected AbstractFernFlowerDecompiler(Project project) {
@@ -66,90 +109,409 @@ public abstract class AbstractFernFlowerDecompiler implements LoomDecompiler {
 
 		project.getLogging().captureStandardOutput(LogLevel.LIFECYCLE);
 
+		long memoryBudget = getMemoryBudget();
+		int workers = (int) Math.max(1, Math.min(metaData.numberOfThreads / THREADS_PER_WORKER, memoryBudget / MIN_WORKER_HEAP));
+		long heap = Math.max(MIN_WORKER_HEAP, Math.min(MAX_WORKER_HEAP, memoryBudget / workers));
+		int threads = Math.max(1, metaData.numberOfThreads / workers);
+		// Resolved here, the shards are forked from threads that Gradle doesn't manage
+		Set<File> classpath = ForkingJavaExec.getClasspath(getForkProject());
+
+		ServiceRegistry registry = ((ProjectInternal) project).getServices();
+		ProgressLoggerFactory factory = registry.get(ProgressLoggerFactory.class);
+		ProgressLogger progressGroup = factory.newOperation(getClass()).setDescription("Decompile");
+		progressGroup.started();
+		DecompilationTimings timings = new DecompilationTimings();
+
+		try {
+			if (workers == 1) {
+				fork(compiledJar, sourcesDestination, linemapDestination, metaData.javaDocs, metaData.libraries, threads, heap, classpath, factory, progressGroup, timings);
+			} else {
+				project.getLogger().lifecycle(":decompiling with {} workers of {} threads and {}m heap each", workers, threads, heap / MEGABYTE);
+				decompileSharded(compiledJar, sourcesDestination, linemapDestination, metaData, workers, threads, heap, classpath, factory, progressGroup, timings);
+			}
+
+			String sourcesName = sourcesDestination.getFileName().toString();
+			timings.write(sourcesDestination.resolveSibling(sourcesName.substring(0, sourcesName.lastIndexOf('.')) + "-timings.json"), project.getLogger());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to decompile " + compiledJar, e);
+		} finally {
+			progressGroup.completed();
+		}
+	}
+
+	/**
+	 * Splits the classes of the compiled jar into shards of roughly equal size, decompiles every shard in
+	 * its own JVM, and merges the results. Inner classes always end up in the same shard as their top-level class.
+	 * A shard only gets the classes of other shards that it references, and their supertypes, as libraries,
+	 * so that the workers don't each load the whole jar.
+	 */
+	private void decompileSharded(Path compiledJar, Path sourcesDestination, Path linemapDestination, DecompilationMetadata metaData, int workers, int threads, long heap, Set<File> classpath, ProgressLoggerFactory factory, ProgressLogger progressGroup, DecompilationTimings timings) throws IOException {
+		Map<String, Map<String, byte[]>> units = new HashMap<>();
+
+		try (ZipFile zip = new ZipFile(compiledJar.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+
+				if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+					continue;
+				}
+
+				String name = entry.getName();
+				int dollarPos = name.indexOf('$');
+				String unit = dollarPos >= 0 ? name.substring(0, dollarPos) : name.substring(0, name.length() - 6);
+
+				try (InputStream is = zip.getInputStream(entry)) {
+					units.computeIfAbsent(unit, k -> new HashMap<>()).put(name, ByteStreams.toByteArray(is));
+				}
+			}
+		}
+
+		// Largest first onto the smallest shard keeps the shards balanced
+		List<Map<String, byte[]>> sortedUnits = new ArrayList<>(units.values());
+		sortedUnits.sort(Comparator.comparingLong(AbstractFernFlowerDecompiler::sizeOf).reversed());
+		List<Map<String, byte[]>> shards = new ArrayList<>();
+		long[] shardSizes = new long[workers];
+
+		for (int i = 0; i < workers; i++) {
+			shards.add(new HashMap<>());
+		}
+
+		for (Map<String, byte[]> unit : sortedUnits) {
+			int smallest = 0;
+
+			for (int i = 1; i < workers; i++) {
+				if (shardSizes[i] < shardSizes[smallest]) {
+					smallest = i;
+				}
+			}
+
+			shards.get(smallest).putAll(unit);
+			shardSizes[smallest] += sizeOf(unit);
+		}
+
+		Path workDir = Files.createTempDirectory("loom-decompile");
+
+		try {
+			Map<String, Integer> shardOf = new HashMap<>();
+
+			for (int i = 0; i < workers; i++) {
+				for (String name : shards.get(i).keySet()) {
+					shardOf.put(name, i);
+				}
+			}
+
+			List<Integer> indices = IntStream.range(0, workers).boxed().collect(Collectors.toList());
+			ThreadingUtils.run(indices, i -> {
+				Path shardJar = workDir.resolve("shard-" + i + ".jar");
+				Path shardLibraries = workDir.resolve("shard-" + i + "-libraries.jar");
+				writeJar(shardJar, shards.get(i));
+				writeJar(shardLibraries, collectLibraries(i, shards, shardOf));
+
+				List<Path> libraries = new ArrayList<>(metaData.libraries);
+				libraries.add(shardLibraries);
+
+				fork(shardJar, workDir.resolve("shard-" + i + "-sources.jar"), workDir.resolve("shard-" + i + ".lmap"), metaData.javaDocs, libraries, threads, heap, classpath, factory, progressGroup, timings);
+			});
+
+			try (OutputStream os = Files.newOutputStream(sourcesDestination); ZipOutputStream zos = new ZipOutputStream(os)) {
+				for (int i = 0; i < workers; i++) {
+					try (ZipFile zip = new ZipFile(workDir.resolve("shard-" + i + "-sources.jar").toFile())) {
+						Enumeration<? extends ZipEntry> entries = zip.entries();
+
+						while (entries.hasMoreElements()) {
+							ZipEntry entry = entries.nextElement();
+
+							if (entry.isDirectory()) {
+								continue;
+							}
+
+							zos.putNextEntry(new ZipEntry(entry.getName()));
+
+							try (InputStream is = zip.getInputStream(entry)) {
+								ByteStreams.copy(is, zos);
+							}
+
+							zos.closeEntry();
+						}
+					}
+				}
+			}
+
+			List<Path> shardLinemaps = IntStream.range(0, workers)
+					.mapToObj(i -> workDir.resolve("shard-" + i + ".lmap"))
+					.filter(Files::exists)
+					.collect(Collectors.toList());
+
+			if (!shardLinemaps.isEmpty()) {
+				try (OutputStream os = Files.newOutputStream(linemapDestination)) {
+					for (Path shardLinemap : shardLinemaps) {
+						Files.copy(shardLinemap, os);
+					}
+				}
+			}
+		} finally {
+			Files.walkFileTree(workDir, new DeletingFileVisitor());
+		}
+	}
+
+	/**
+	 * @return the classes of other shards that the given shard references, together with their supertypes
+	 */
+	private static Map<String, byte[]> collectLibraries(int shard, List<Map<String, byte[]>> shards, Map<String, Integer> shardOf) {
+		Deque<String> queue = new ArrayDeque<>();
+		Remapper collector = new Remapper() {
+			@Override
+			public String map(String internalName) {
+				queue.push(internalName);
+				return internalName;
+			}
+		};
+
+		for (byte[] bytes : shards.get(shard).values()) {
+			new ClassReader(bytes).accept(new ClassRemapper(new ClassVisitor(Opcodes.ASM9) { }, collector), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		}
+
+		Map<String, byte[]> libraries = new HashMap<>();
+		Set<String> seen = new HashSet<>();
+
+		while (!queue.isEmpty()) {
+			String name = queue.pop() + ".class";
+			Integer owner = shardOf.get(name);
+
+			// The shard's own classes were all visited above, and anything outside the jar comes from the other libraries
+			if (!seen.add(name) || owner == null || owner == shard) {
+				continue;
+			}
+
+			byte[] bytes = shards.get(owner).get(name);
+			libraries.put(name, bytes);
+
+			ClassReader reader = new ClassReader(bytes);
+
+			if (reader.getSuperName() != null) {
+				queue.push(reader.getSuperName());
+			}
+
+			Collections.addAll(queue, reader.getInterfaces());
+		}
+
+		return libraries;
+	}
+
+	private void fork(Path input, Path sourcesDestination, Path linemapDestination, Path javaDocs, Collection<Path> libraries, int threads, long heap, Set<File> classpath, ProgressLoggerFactory factory, ProgressLogger progressGroup, DecompilationTimings timings) throws IOException {
 		Map<String, Object> options = new HashMap<String, Object>() {{
 				put(IFernflowerPreferences.DECOMPILE_GENERIC_SIGNATURES, "1");
 				put(IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, "1");
 				put(IFernflowerPreferences.REMOVE_SYNTHETIC, "1");
 				put(IFernflowerPreferences.LOG_LEVEL, "trace");
-				put(IFernflowerPreferences.THREADS, metaData.numberOfThreads);
+				put(IFernflowerPreferences.THREADS, threads);
 			}};
 
 		List<String> args = new ArrayList<>();
 
 		options.forEach((k, v) -> args.add(format("-{0}={1}", k, v)));
-		args.add(absolutePathOf(compiledJar));
+		args.add(absolutePathOf(input));
 		args.add("-o=" + absolutePathOf(sourcesDestination));
 		args.add("-l=" + absolutePathOf(linemapDestination));
-		args.add("-m=" + absolutePathOf(metaData.javaDocs));
+		args.add("-m=" + absolutePathOf(javaDocs));
 
 		// TODO, Decompiler breaks on jemalloc, J9 module-info.class?
-		for (Path library : metaData.libraries) {
+		for (Path library : libraries) {
 			args.add("-e=" + absolutePathOf(library));
 		}
 
-		ServiceRegistry registry = ((ProjectInternal) project).getServices();
-		ProgressLoggerFactory factory = registry.get(ProgressLoggerFactory.class);
-		ProgressLogger progressGroup = factory.newOperation(getClass()).setDescription("Decompile");
-		Supplier<ProgressLogger> loggerFactory = () -> {
-			ProgressLogger pl = factory.newOperation(getClass(), progressGroup);
-			pl.setDescription("decompile worker");
-			pl.started();
-			return pl;
-		};
-		Stack<ProgressLogger> freeLoggers = new Stack<>();
-		Map<String, ProgressLogger> inUseLoggers = new HashMap<>();
-
-		progressGroup.started();
-		ExecResult result = ForkingJavaExec.javaexec(
-				project.getRootProject().getPlugins().hasPlugin(Constants.PLUGIN_ID) ? project.getRootProject() : project,
-				spec -> {
-					spec.setMain(fernFlowerExecutor().getName());
-					spec.jvmArgs("-Xms200m", "-Xmx3G");
-					spec.setArgs(args);
-					spec.setErrorOutput(System.err);
-					spec.setStandardOutput(new ConsumingOutputStream(line -> {
-						if (line.startsWith("Listening for transport") || !line.contains("::")) {
-							System.out.println(line);
-							return;
-						}
+		ProgressListener listener = new ProgressListener(factory, progressGroup, timings);
+		ExecResult result;
 
-						int sepIdx = line.indexOf("::");
-						String id = line.substring(0, sepIdx).trim();
-						String data = line.substring(sepIdx + 2).trim();
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			args.add("-p=" + server.getLocalPort());
 
-						ProgressLogger logger = inUseLoggers.get(id);
+			Thread receiver = new Thread(() -> {
+				try (Socket socket = server.accept(); InputStream is = socket.getInputStream()) {
+					ProgressChannel.read(is, listener);
+				} catch (IOException e) {
+					// The server is closed without a connection if the fork fails to start
+					if (!server.isClosed()) {
+						project.getLogger().warn("Failed to read the decompiler progress", e);
+					}
+				}
+			}, "Decompiler progress");
+			receiver.setDaemon(true);
+			receiver.start();
 
-						String[] segs = data.split(" ");
+			result = ForkingJavaExec.javaexec(getForkProject(), classpath,
+					spec -> {
+						spec.setMain(fernFlowerExecutor().getName());
+						spec.jvmArgs("-Xms200m", "-Xmx" + heap / MEGABYTE + "m");
+						spec.setArgs(args);
+						spec.setErrorOutput(System.err);
+						spec.setStandardOutput(new ConsumingOutputStream(System.out::println));
+					});
 
-						if (segs[0].equals("waiting")) {
-							if (logger != null) {
-								logger.progress("Idle..");
-								inUseLoggers.remove(id);
-								freeLoggers.push(logger);
-							}
-						} else {
-							if (logger == null) {
-								if (!freeLoggers.isEmpty()) {
-									logger = freeLoggers.pop();
-								} else {
-									logger = loggerFactory.get();
-								}
-
-								inUseLoggers.put(id, logger);
-							}
-
-							logger.progress(data);
-						}
-					}));
-				});
-		inUseLoggers.values().forEach(ProgressLogger::completed);
-		freeLoggers.forEach(ProgressLogger::completed);
-		progressGroup.completed();
+			// Closing the server doesn't affect an accepted connection, which ends with the fork
+			server.close();
+			receiver.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decompiling", e);
+		} finally {
+			listener.completed();
+		}
 
 		result.rethrowFailure();
 		result.assertNormalExitValue();
 	}
 
+	private Project getForkProject() {
+		return project.getRootProject().getPlugins().hasPlugin(Constants.PLUGIN_ID) ? project.getRootProject() : project;
+	}
+
+	/**
+	 * Shows what each thread of a fork is doing in its own progress logger, and records the timings.
+	 */
+	private class ProgressListener implements ProgressChannel.Listener {
+		private final ProgressLoggerFactory factory;
+		private final ProgressLogger progressGroup;
+		private final DecompilationTimings timings;
+		private final Deque<ProgressLogger> freeLoggers = new ArrayDeque<>();
+		private final Map<Integer, ProgressLogger> inUseLoggers = new HashMap<>();
+
+		ProgressListener(ProgressLoggerFactory factory, ProgressLogger progressGroup, DecompilationTimings timings) {
+			this.factory = factory;
+			this.progressGroup = progressGroup;
+			this.timings = timings;
+		}
+
+		@Override
+		public synchronized void started(int thread, int stage, String className) {
+			ProgressLogger logger = inUseLoggers.get(thread);
+
+			if (logger == null) {
+				if (!freeLoggers.isEmpty()) {
+					logger = freeLoggers.pop();
+				} else {
+					logger = factory.newOperation(AbstractFernFlowerDecompiler.this.getClass(), progressGroup);
+					logger.setDescription("decompile worker");
+					logger.started();
+				}
+
+				inUseLoggers.put(thread, logger);
+			}
+
+			logger.progress((stage == ProgressChannel.STAGE_WRITE ? "Writing " : "Decompiling ") + className);
+		}
+
+		@Override
+		public void finished(int thread, int stage, String className, long nanos) {
+			timings.finished(stage, className, nanos);
+		}
+
+		@Override
+		public void failed(int thread, String className, String message) {
+			timings.failed(className, message);
+		}
+
+		@Override
+		public synchronized void idle(int thread) {
+			ProgressLogger logger = inUseLoggers.remove(thread);
+
+			if (logger != null) {
+				logger.progress("Idle..");
+				freeLoggers.push(logger);
+			}
+		}
+
+		synchronized void completed() {
+			inUseLoggers.values().forEach(ProgressLogger::completed);
+			freeLoggers.forEach(ProgressLogger::completed);
+			inUseLoggers.clear();
+			freeLoggers.clear();
+		}
+	}
+
+	/**
+	 * @return how much memory the decompiler workers may use together, half of the available memory if it is known
+	 */
+	private static long getMemoryBudget() {
+		long available = Long.MAX_VALUE;
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			available = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+		}
+
+		// Java 8 reports the memory of the host rather than that of the container, so respect its limits too
+		available = Math.min(available, getMaxRam());
+
+		for (String limitFile : CGROUP_MEMORY_LIMITS) {
+			available = Math.min(available, readMemoryLimit(Paths.get(limitFile)));
+		}
+
+		return available == Long.MAX_VALUE ? MAX_WORKER_HEAP : available / 2;
+	}
+
+	/**
+	 * @return the value of {@code -XX:MaxRAM} if it was given or set for a container, otherwise {@link Long#MAX_VALUE}
+	 */
+	private static long getMaxRam() {
+		try {
+			HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+
+			if (hotSpot != null) {
+				VMOption maxRam = hotSpot.getVMOption("MaxRAM");
+
+				if (maxRam.getOrigin() != VMOption.Origin.DEFAULT) {
+					return Long.parseLong(maxRam.getValue());
+				}
+			}
+		} catch (RuntimeException e) {
+			// Not a HotSpot JVM, or one without the option
+		}
+
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return the limit in a cgroup memory limit file, or {@link Long#MAX_VALUE} if there is none
+	 */
+	private static long readMemoryLimit(Path limitFile) {
+		try {
+			if (Files.isReadable(limitFile)) {
+				String limit = new String(Files.readAllBytes(limitFile), StandardCharsets.US_ASCII).trim();
+
+				if (!limit.isEmpty() && !"max".equals(limit)) {
+					return Long.parseLong(limit);
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// An unreadable limit is no limit
+		}
+
+		return Long.MAX_VALUE;
+	}
+
+	private static long sizeOf(Map<String, byte[]> classes) {
+		long size = 0;
+
+		for (byte[] bytes : classes.values()) {
+			size += bytes.length;
+		}
+
+		return size;
+	}
+
+	private static void writeJar(Path jar, Map<String, byte[]> classes) throws IOException {
+		try (OutputStream os = Files.newOutputStream(jar); ZipOutputStream zos = new ZipOutputStream(os)) {
+			for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+				zos.putNextEntry(new ZipEntry(entry.getKey()));
+				zos.write(entry.getValue());
+				zos.closeEntry();
+			}
+		}
+	}
+
 	private static String absolutePathOf(Path path) {
 		return path.toAbsolutePath().toString();
 	}
@@ -25,6 +25,10 @@
 package net.fabricmc.loom.decompilers.fernflower;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -36,6 +40,7 @@ import java.util.Objects;
  * Takes one parameter, a single file, each line is treated as command line input.
  * Forces one input file.
  * Forces one output file using '-o=/path/to/output'
+ * Reports progress to the port given with '-p=port', see {@link ProgressChannel}.
  * Created by covers1624 on 11/02/19.
  * <p>Extending classes MUST have a standard "public static void main(args)".
  * They may then call AbstractForkedFFExecutor#decompile for it to use the overridden AbstractForkedFFExecutor#runFF
@@ -48,6 +53,7 @@ public abstract class AbstractForkedFFExecutor {
 		File output = null;
 		File lineMap = null;
 		File mappings = null;
+		Integer progressPort = null;
 		List<File> libraries = new ArrayList<>();
 
 		boolean isOption = true;
@@ -80,6 +86,8 @@ public abstract class AbstractForkedFFExecutor {
 					}
 
 					lineMap = new File(arg.substring(3));
+				} else if (arg.startsWith("-p=")) {
+					progressPort = Integer.parseInt(arg.substring(3));
 				} else if (arg.startsWith("-m=")) {
 					if (mappings != null) {
 						throw new RuntimeException("Unable to use more than one mappings file.");
@@ -100,8 +108,39 @@ public abstract class AbstractForkedFFExecutor {
 		Objects.requireNonNull(output, "Output not set.");
 		Objects.requireNonNull(mappings, "Mappings not set.");
 
-		ffExecutor.runFF(options, libraries, input, output, lineMap, mappings);
+		try (ProgressChannel.Sender progress = new ProgressChannel.Sender(connectProgress(progressPort))) {
+			ffExecutor.runFF(options, libraries, input, output, lineMap, mappings, progress);
+		}
+	}
+
+	/**
+	 * @return the stream to report progress to, or null if there is none or it can't be reached
+	 */
+	private static OutputStream connectProgress(Integer progressPort) {
+		if (progressPort == null) {
+			return null;
+		}
+
+		Socket socket = null;
+
+		try {
+			socket = new Socket(InetAddress.getLoopbackAddress(), progressPort);
+			// Closing the stream closes the socket
+			return socket.getOutputStream();
+		} catch (IOException e) {
+			System.err.println("Failed to connect to report progress, decompiling without: " + e);
+
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+			}
+
+			return null;
+		}
 	}
 
-	public abstract void runFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap, File mappings);
+	public abstract void runFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap, File mappings, ProgressChannel.Sender progress);
 }
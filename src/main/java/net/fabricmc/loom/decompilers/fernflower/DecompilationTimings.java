@@ -0,0 +1,128 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.fernflower;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.gradle.api.logging.Logger;
+
+import net.fabricmc.loom.LoomGradlePlugin;
+
+/**
+ * Collects how long each class took to read, decompile and write, across all decompiler workers,
+ * along with the failures they reported.
+ */
+final class DecompilationTimings {
+	private static final int SLOWEST_LOGGED = 10;
+
+	private final Map<String, long[]> classes = new ConcurrentHashMap<>();
+	private final Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+
+	void finished(int stage, String className, long nanos) {
+		if (stage < 0 || stage > ProgressChannel.STAGE_WRITE) {
+			return;
+		}
+
+		classes.compute(className, (name, stages) -> {
+			if (stages == null) {
+				stages = new long[ProgressChannel.STAGE_WRITE + 1];
+			}
+
+			stages[stage] += nanos;
+			return stages;
+		});
+	}
+
+	void failed(String className, String message) {
+		Failure failure = new Failure();
+		failure.name = className;
+		failure.message = message;
+		failures.add(failure);
+	}
+
+	/**
+	 * Writes the timings of all classes, slowest first, as JSON and logs the slowest ones.
+	 */
+	void write(Path file, Logger logger) throws IOException {
+		Summary summary = new Summary();
+
+		for (Map.Entry<String, long[]> entry : classes.entrySet()) {
+			ClassTiming timing = new ClassTiming();
+			timing.name = entry.getKey();
+			timing.readMillis = TimeUnit.NANOSECONDS.toMillis(entry.getValue()[ProgressChannel.STAGE_READ]);
+			timing.decompileMillis = TimeUnit.NANOSECONDS.toMillis(entry.getValue()[ProgressChannel.STAGE_DECOMPILE]);
+			timing.writeMillis = TimeUnit.NANOSECONDS.toMillis(entry.getValue()[ProgressChannel.STAGE_WRITE]);
+			timing.totalMillis = timing.readMillis + timing.decompileMillis + timing.writeMillis;
+			summary.classes.add(timing);
+		}
+
+		summary.classes.sort(Comparator.comparingLong((ClassTiming timing) -> timing.totalMillis).reversed());
+		summary.failures.addAll(failures);
+
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			LoomGradlePlugin.GSON.toJson(summary, writer);
+		}
+
+		logger.info(":slowest classes to decompile, see {} for all:", file);
+
+		for (ClassTiming timing : summary.classes.subList(0, Math.min(SLOWEST_LOGGED, summary.classes.size()))) {
+			logger.info("  {} ({} ms)", timing.name, timing.totalMillis);
+		}
+
+		if (!summary.failures.isEmpty()) {
+			logger.warn(":{} classes or methods failed to decompile, see {}", summary.failures.size(), file);
+		}
+	}
+
+	private static class Summary {
+		List<ClassTiming> classes = new ArrayList<>();
+		List<Failure> failures = new ArrayList<>();
+	}
+
+	private static class ClassTiming {
+		String name;
+		long readMillis;
+		long decompileMillis;
+		long writeMillis;
+		long totalMillis;
+	}
+
+	private static class Failure {
+		String name;
+		String message;
+	}
+}
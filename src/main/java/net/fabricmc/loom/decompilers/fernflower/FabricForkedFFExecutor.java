@@ -40,11 +40,11 @@ public class FabricForkedFFExecutor extends AbstractForkedFFExecutor {
 	}
 
 	@Override
-	public void runFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap, File mappings) {
+	public void runFF(Map<String, Object> options, List<File> libraries, File input, File output, File lineMap, File mappings, ProgressChannel.Sender progress) {
 		options.put(IFabricJavadocProvider.PROPERTY_NAME, new TinyJavadocProvider(mappings));
 
 		IResultSaver saver = new ThreadSafeResultSaver(() -> output, () -> lineMap);
-		IFernflowerLogger logger = new ThreadIDFFLogger();
+		IFernflowerLogger logger = new ThreadIDFFLogger(progress);
 		Fernflower ff = new Fernflower(FernFlowerUtils::getBytecode, saver, options, logger);
 
 		for (File library : libraries) {
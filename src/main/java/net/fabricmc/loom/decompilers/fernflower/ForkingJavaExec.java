@@ -24,6 +24,9 @@
 
 package net.fabricmc.loom.decompilers.fernflower;
 
+import java.io.File;
+import java.util.Set;
+
 import org.gradle.api.Action;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.ConfigurationContainer;
@@ -40,15 +43,29 @@ import org.gradle.process.JavaExecSpec;
  */
 public class ForkingJavaExec {
 	public static ExecResult javaexec(Project project, Action<? super JavaExecSpec> action) {
+		return javaexec(project, getClasspath(project), action);
+	}
+
+	/**
+	 * @param classpath the classpath from {@link #getClasspath(Project)}, resolved up front when forking from other threads
+	 */
+	public static ExecResult javaexec(Project project, Set<File> classpath, Action<? super JavaExecSpec> action) {
+		return project.javaexec(spec -> {
+			spec.classpath(classpath);
+			action.execute(spec);
+		});
+	}
+
+	/**
+	 * Resolves the classpath of the gradle plugin plus groovy. Resolving configurations is only safe on threads that Gradle manages.
+	 */
+	public static Set<File> getClasspath(Project project) {
 		ConfigurationContainer configurations = project.getBuildscript().getConfigurations();
 		DependencyHandler handler = project.getDependencies();
 		FileCollection classpath = project.getBuildscript().getConfigurations().getByName("classpath")
 						.plus(project.getRootProject().getBuildscript().getConfigurations().getByName("classpath"))
 						.plus(configurations.detachedConfiguration(handler.localGroovy()));
 
-		return project.javaexec(spec -> {
-			spec.classpath(classpath);
-			action.execute(spec);
-		});
+		return classpath.getFiles();
 	}
 }
@@ -0,0 +1,287 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.decompilers.fernflower;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The progress protocol between a forked decompiler and Gradle.
+ *
+ * <p>The fork sends batches of events over a socket as frames: the length of the frame followed by its events.
+ * Every event starts with its type and the id of the decompiler thread, followed by the fields of the type.
+ * The decompiler threads only queue events, a background thread sends them, so that reporting progress never
+ * makes the decompiler threads wait on each other or on Gradle.
+ */
+public final class ProgressChannel {
+	// Stage, class name
+	public static final byte STARTED = 1;
+	// Stage, class name, duration in nanoseconds
+	public static final byte FINISHED = 2;
+	// Class name (empty if unknown), message
+	public static final byte FAILED = 3;
+	// No fields, the thread has nothing left to do for now
+	public static final byte IDLE = 4;
+
+	public static final byte STAGE_READ = 0;
+	public static final byte STAGE_DECOMPILE = 1;
+	public static final byte STAGE_WRITE = 2;
+
+	private static final long FLUSH_INTERVAL_MILLIS = 100;
+	private static final int MAX_MESSAGE_LENGTH = 4096;
+
+	private ProgressChannel() {
+	}
+
+	public interface Listener {
+		void started(int thread, int stage, String className);
+
+		void finished(int thread, int stage, String className, long nanos);
+
+		void failed(int thread, String className, String message);
+
+		void idle(int thread);
+	}
+
+	/**
+	 * Reads frames until the fork closes the channel, and passes their events to the listener.
+	 */
+	public static void read(InputStream is, Listener listener) throws IOException {
+		DataInputStream in = new DataInputStream(is);
+
+		while (true) {
+			int length;
+
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				return;
+			}
+
+			byte[] frame = new byte[length];
+			in.readFully(frame);
+			DataInputStream events = new DataInputStream(new ByteArrayInputStream(frame));
+
+			while (events.available() > 0) {
+				byte type = events.readByte();
+				int thread = events.readInt();
+
+				switch (type) {
+				case STARTED:
+					listener.started(thread, events.readByte(), events.readUTF());
+					break;
+				case FINISHED:
+					listener.finished(thread, events.readByte(), events.readUTF(), events.readLong());
+					break;
+				case FAILED:
+					listener.failed(thread, events.readUTF(), events.readUTF());
+					break;
+				case IDLE:
+					listener.idle(thread);
+					break;
+				default:
+					throw new IOException("Unknown progress event " + type);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The sending end, used in the forked decompiler.
+	 */
+	public static final class Sender implements Closeable {
+		@Nullable
+		private final DataOutputStream out;
+		private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+		private final Thread flusher;
+		private volatile boolean open;
+
+		/**
+		 * @param os where to send the events, or null to drop them
+		 */
+		public Sender(@Nullable OutputStream os) {
+			this.out = os != null ? new DataOutputStream(new BufferedOutputStream(os, 1 << 16)) : null;
+			this.open = os != null;
+			this.flusher = new Thread(this::run, "Decompiler progress");
+			flusher.setDaemon(true);
+
+			if (open) {
+				flusher.start();
+			}
+		}
+
+		public void started(int stage, String className) {
+			add(new Event(STARTED, stage, className, 0));
+		}
+
+		public void finished(int stage, String className, long nanos) {
+			add(new Event(FINISHED, stage, className, nanos));
+		}
+
+		public void failed(@Nullable String className, String message) {
+			if (message.length() > MAX_MESSAGE_LENGTH) {
+				message = message.substring(0, MAX_MESSAGE_LENGTH);
+			}
+
+			add(new Event(FAILED, 0, className != null ? className : "", message));
+		}
+
+		public void idle() {
+			add(new Event(IDLE, 0, null, 0));
+		}
+
+		private void add(Event event) {
+			if (open) {
+				queue.add(event);
+			}
+		}
+
+		private void run() {
+			try {
+				while (open) {
+					Thread.sleep(FLUSH_INTERVAL_MILLIS);
+					flush();
+				}
+			} catch (InterruptedException e) {
+				// Closed, the remaining events are sent by close()
+			} catch (IOException e) {
+				// Gradle is gone, stop queuing events that nobody reads
+				open = false;
+				queue.clear();
+			}
+		}
+
+		private synchronized void flush() throws IOException {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(frame);
+			Event event;
+
+			while ((event = queue.poll()) != null) {
+				event.write(data);
+			}
+
+			if (frame.size() > 0 && out != null) {
+				out.writeInt(frame.size());
+				frame.writeTo(out);
+				out.flush();
+			}
+		}
+
+		/**
+		 * Sends the remaining events. Progress is only informative, so failing to send it never fails the decompilation.
+		 */
+		@Override
+		public void close() {
+			if (out == null) {
+				return;
+			}
+
+			boolean wasOpen = open;
+			open = false;
+			flusher.interrupt();
+
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			try {
+				if (wasOpen) {
+					flush();
+				}
+			} catch (IOException e) {
+				System.err.println("Failed to report the last decompiler progress: " + e);
+			} finally {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// Nothing left to send
+				}
+			}
+		}
+	}
+
+	private static final class Event {
+		private final byte type;
+		private final int thread;
+		private final int stage;
+		private final String className;
+		private final long nanos;
+		private final String message;
+
+		private Event(byte type, int stage, String className, long nanos) {
+			this(type, stage, className, nanos, null);
+		}
+
+		private Event(byte type, int stage, String className, String message) {
+			this(type, stage, className, 0, message);
+		}
+
+		private Event(byte type, int stage, String className, long nanos, String message) {
+			this.type = type;
+			this.thread = (int) Thread.currentThread().getId();
+			this.stage = stage;
+			this.className = className;
+			this.nanos = nanos;
+			this.message = message;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeByte(type);
+			out.writeInt(thread);
+
+			switch (type) {
+			case STARTED:
+				out.writeByte(stage);
+				out.writeUTF(className);
+				break;
+			case FINISHED:
+				out.writeByte(stage);
+				out.writeUTF(className);
+				out.writeLong(nanos);
+				break;
+			case FAILED:
+				out.writeUTF(className);
+				out.writeUTF(message);
+				break;
+			default:
+				break;
+			}
+		}
+	}
+}
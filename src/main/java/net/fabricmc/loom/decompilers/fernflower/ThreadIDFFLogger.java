@@ -24,32 +24,23 @@
 
 package net.fabricmc.loom.decompilers.fernflower;
 
-import java.io.PrintStream;
-import java.text.MessageFormat;
-import java.util.Stack;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 import org.jetbrains.java.decompiler.main.extern.IFernflowerLogger;
 
 /**
- * This logger simply prints what each thread is doing
- * to the console in a machine parsable way.
+ * This logger reports what each thread is doing, and how long it took,
+ * to Gradle through a {@link ProgressChannel}.
  *
  * <p>Created by covers1624 on 11/02/19.
  */
 public class ThreadIDFFLogger extends IFernflowerLogger {
-	public final PrintStream stdOut;
-	public final PrintStream stdErr;
+	private final ProgressChannel.Sender progress;
+	private final ThreadLocal<Deque<Task>> tasks = ThreadLocal.withInitial(ArrayDeque::new);
 
-	private final ThreadLocal<Stack<String>> workingClass = ThreadLocal.withInitial(Stack::new);
-	private final ThreadLocal<Stack<String>> line = ThreadLocal.withInitial(Stack::new);
-
-	public ThreadIDFFLogger() {
-		this(System.err, System.out);
-	}
-
-	public ThreadIDFFLogger(PrintStream stdOut, PrintStream stdErr) {
-		this.stdOut = stdOut;
-		this.stdErr = stdErr;
+	public ThreadIDFFLogger(ProgressChannel.Sender progress) {
+		this.progress = progress;
 	}
 
 	@Override
@@ -61,38 +52,41 @@ public class ThreadIDFFLogger extends IFernflowerLogger {
 	public void writeMessage(String message, Severity severity, Throwable t) {
 		System.err.println(message);
 		t.printStackTrace(System.err);
+
+		if (severity.ordinal() >= Severity.WARN.ordinal()) {
+			Task task = tasks.get().peek();
+			progress.failed(task != null ? task.className : null, message + ": " + t);
+		}
+	}
+
+	private void start(byte stage, String className) {
+		tasks.get().push(new Task(stage, className));
+		progress.started(stage, className);
 	}
 
-	private void print() {
-		Thread thread = Thread.currentThread();
-		long id = thread.getId();
+	private void end() {
+		Deque<Task> tasks = this.tasks.get();
+		Task task = tasks.pop();
+		progress.finished(task.stage, task.className, System.nanoTime() - task.start);
 
-		if (line.get().isEmpty()) {
-			System.out.println(MessageFormat.format("{0} :: waiting", id));
-			return;
+		if (tasks.isEmpty()) {
+			progress.idle();
 		}
-
-		String line = this.line.get().peek();
-		System.out.println(MessageFormat.format("{0} :: {1}", id, line).trim());
 	}
 
 	@Override
 	public void startReadingClass(String className) {
-		workingClass.get().push(className);
-		line.get().push("Decompiling " + className);
-		print();
+		start(ProgressChannel.STAGE_READ, className);
 	}
 
 	@Override
 	public void startClass(String className) {
-		workingClass.get().push(className);
-		line.get().push("Decompiling " + className);
-		print();
+		start(ProgressChannel.STAGE_DECOMPILE, className);
 	}
 
 	@Override
 	public void startMethod(String methodName) {
-		// No need to print out methods
+		// No need to report methods
 	}
 
 	@Override
@@ -101,27 +95,32 @@ public class ThreadIDFFLogger extends IFernflowerLogger {
 
 	@Override
 	public void endClass() {
-		line.get().pop();
-		workingClass.get().pop();
-		print();
+		end();
 	}
 
 	@Override
 	public void startWriteClass(String className) {
-		line.get().push("Writing " + className);
-		print();
+		start(ProgressChannel.STAGE_WRITE, className);
 	}
 
 	@Override
 	public void endWriteClass() {
-		line.get().pop();
-		print();
+		end();
 	}
 
 	@Override
 	public void endReadingClass() {
-		line.get().pop();
-		workingClass.get().pop();
-		print();
+		end();
+	}
+
+	private static final class Task {
+		private final byte stage;
+		private final String className;
+		private final long start = System.nanoTime();
+
+		private Task(byte stage, String className) {
+			this.stage = stage;
+			this.className = className;
+		}
 	}
 }
@@ -25,27 +25,17 @@
 package net.fabricmc.loom.decompilers.fernflower;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
-import org.jetbrains.java.decompiler.main.DecompilerContext;
 import org.jetbrains.java.decompiler.main.extern.IResultSaver;
 
 import net.fabricmc.fernflower.api.IFabricResultSaver;
+import net.fabricmc.loom.decompilers.SourcesJarWriter;
 
 /**
  * Created by covers1624 on 18/02/19.
@@ -54,9 +44,7 @@ public class ThreadSafeResultSaver implements IResultSaver, IFabricResultSaver {
 	private final Supplier<File> output;
 	private final Supplier<File> lineMapFile;
 
-	public Map<String, ZipOutputStream> outputStreams = new HashMap<>();
-	public Map<String, ExecutorService> saveExecutors = new HashMap<>();
-	public PrintWriter lineMapWriter;
+	public Map<String, SourcesJarWriter> writers = new ConcurrentHashMap<>();
 
 	public ThreadSafeResultSaver(Supplier<File> output, Supplier<File> lineMapFile) {
 		this.output = output;
@@ -69,21 +57,10 @@ public class ThreadSafeResultSaver implements IResultSaver, IFabricResultSaver {
 		File file = output.get();
 
 		try {
-			FileOutputStream fos = new FileOutputStream(file);
-			ZipOutputStream zos = manifest == null ? new ZipOutputStream(fos) : new JarOutputStream(fos, manifest);
-			outputStreams.put(key, zos);
-			saveExecutors.put(key, Executors.newSingleThreadExecutor());
+			writers.put(key, new SourcesJarWriter(file, lineMapFile.get(), manifest));
 		} catch (IOException e) {
 			throw new RuntimeException("Unable to create archive: " + file, e);
 		}
-
-		if (lineMapFile.get() != null) {
-			try {
-				lineMapWriter = new PrintWriter(new FileWriter(lineMapFile.get()));
-			} catch (IOException e) {
-				throw new RuntimeException("Unable to create line mapping file: " + lineMapFile.get(), e);
-			}
-		}
 	}
 
 	@Override
@@ -93,65 +70,34 @@ public class ThreadSafeResultSaver implements IResultSaver, IFabricResultSaver {
 
 	@Override
 	public void saveClassEntry(String path, String archiveName, String qualifiedName, String entryName, String content, int[] mapping) {
-		String key = path + "/" + archiveName;
-		ExecutorService executor = saveExecutors.get(key);
-		executor.submit(() -> {
-			ZipOutputStream zos = outputStreams.get(key);
-
-			try {
-				zos.putNextEntry(new ZipEntry(entryName));
-
-				if (content != null) {
-					zos.write(content.getBytes(StandardCharsets.UTF_8));
-				}
-			} catch (IOException e) {
-				DecompilerContext.getLogger().writeMessage("Cannot write entry " + entryName, e);
-			}
-
-			if (mapping != null && lineMapWriter != null) {
-				int maxLine = 0;
-				int maxLineDest = 0;
-				StringBuilder builder = new StringBuilder();
+		String lineMap = null;
 
-				for (int i = 0; i < mapping.length; i += 2) {
-					maxLine = Math.max(maxLine, mapping[i]);
-					maxLineDest = Math.max(maxLineDest, mapping[i + 1]);
-					builder.append("\t").append(mapping[i]).append("\t").append(mapping[i + 1]).append("\n");
-				}
+		if (mapping != null) {
+			int maxLine = 0;
+			int maxLineDest = 0;
+			StringBuilder builder = new StringBuilder();
 
-				lineMapWriter.println(qualifiedName + "\t" + maxLine + "\t" + maxLineDest);
-				lineMapWriter.println(builder.toString());
+			for (int i = 0; i < mapping.length; i += 2) {
+				maxLine = Math.max(maxLine, mapping[i]);
+				maxLineDest = Math.max(maxLineDest, mapping[i + 1]);
+				builder.append("\t").append(mapping[i]).append("\t").append(mapping[i + 1]).append("\n");
 			}
-		});
+
+			lineMap = qualifiedName + "\t" + maxLine + "\t" + maxLineDest + "\n" + builder + "\n";
+		}
+
+		// Compression happens on the calling decompiler thread, the entries are only written out on close
+		writers.get(path + "/" + archiveName).add(entryName, content != null ? content.getBytes(StandardCharsets.UTF_8) : new byte[0], lineMap);
 	}
 
 	@Override
 	public void closeArchive(String path, String archiveName) {
 		String key = path + "/" + archiveName;
-		ExecutorService executor = saveExecutors.get(key);
-		Future<?> closeFuture = executor.submit(() -> {
-			ZipOutputStream zos = outputStreams.get(key);
-
-			try {
-				zos.close();
-			} catch (IOException e) {
-				throw new RuntimeException("Unable to close zip. " + key, e);
-			}
-		});
-		executor.shutdown();
 
 		try {
-			closeFuture.get();
-		} catch (InterruptedException | ExecutionException e) {
-			throw new RuntimeException(e);
-		}
-
-		outputStreams.remove(key);
-		saveExecutors.remove(key);
-
-		if (lineMapWriter != null) {
-			lineMapWriter.flush();
-			lineMapWriter.close();
+			writers.remove(key).close();
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to close zip. " + key, e);
 		}
 	}
 
@@ -29,6 +29,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,79 +45,105 @@ import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.ParameterDef;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
-import net.fabricmc.mappings.EntryTriple;
 
+/**
+ * Provides the javadocs of the mappings to the decompiler.
+ *
+ * <p>Only classes and members that have comments are kept, and the mapping tree is dropped once they are
+ * indexed, so the index takes little of the decompiler's heap. Lookups do not allocate.
+ */
 public class TinyJavadocProvider implements IFabricJavadocProvider {
-	private final Map<String, ClassDef> classes = new HashMap<>();
-	private final Map<EntryTriple, FieldDef> fields = new HashMap<>();
-	private final Map<EntryTriple, MethodDef> methods = new HashMap<>();
+	private static final String NAMESPACE = "named";
 
-	private final String namespace = "named";
+	private final Map<String, ClassDocs> classes = new HashMap<>();
 
 	public TinyJavadocProvider(File tinyFile) {
 		final TinyTree mappings = readMappings(tinyFile);
 
 		for (ClassDef classDef : mappings.getClasses()) {
-			final String className = classDef.getName(namespace);
-			classes.put(className, classDef);
+			List<String[]> fields = new ArrayList<>();
+			List<String[]> methods = new ArrayList<>();
 
 			for (FieldDef fieldDef : classDef.getFields()) {
-				fields.put(new EntryTriple(className, fieldDef.getName(namespace), fieldDef.getDescriptor(namespace)), fieldDef);
+				if (fieldDef.getComment() != null) {
+					fields.add(new String[] {fieldDef.getName(NAMESPACE), fieldDef.getDescriptor(NAMESPACE), fieldDef.getComment()});
+				}
 			}
 
 			for (MethodDef methodDef : classDef.getMethods()) {
-				methods.put(new EntryTriple(className, methodDef.getName(namespace), methodDef.getDescriptor(namespace)), methodDef);
+				String doc = getMethodDoc(methodDef);
+
+				if (doc != null) {
+					methods.add(new String[] {methodDef.getName(NAMESPACE), methodDef.getDescriptor(NAMESPACE), doc});
+				}
+			}
+
+			if (classDef.getComment() != null || !fields.isEmpty() || !methods.isEmpty()) {
+				classes.put(classDef.getName(NAMESPACE).intern(), new ClassDocs(classDef.getComment(), new MemberTable(fields), new MemberTable(methods)));
 			}
 		}
 	}
 
 	@Override
 	public String getClassDoc(StructClass structClass) {
-		ClassDef classDef = classes.get(structClass.qualifiedName);
-		return classDef != null ? classDef.getComment() : null;
+		return getClassDoc(structClass.qualifiedName);
 	}
 
 	@Override
 	public String getFieldDoc(StructClass structClass, StructField structField) {
-		FieldDef fieldDef = fields.get(new EntryTriple(structClass.qualifiedName, structField.getName(), structField.getDescriptor()));
-		return fieldDef != null ? fieldDef.getComment() : null;
+		return getFieldDoc(structClass.qualifiedName, structField.getName(), structField.getDescriptor());
 	}
 
 	@Override
 	public String getMethodDoc(StructClass structClass, StructMethod structMethod) {
-		MethodDef methodDef = methods.get(new EntryTriple(structClass.qualifiedName, structMethod.getName(), structMethod.getDescriptor()));
+		return getMethodDoc(structClass.qualifiedName, structMethod.getName(), structMethod.getDescriptor());
+	}
 
-		if (methodDef != null) {
-			List<String> parts = new ArrayList<>();
+	// Lookups by internal names, for decompilers other than FernFlower
 
-			if (methodDef.getComment() != null) {
-				parts.add(methodDef.getComment());
-			}
+	public String getClassDoc(String className) {
+		ClassDocs classDocs = classes.get(className);
+		return classDocs != null ? classDocs.comment : null;
+	}
 
-			boolean addedParam = false;
+	public String getFieldDoc(String owner, String name, String descriptor) {
+		ClassDocs classDocs = classes.get(owner);
+		return classDocs != null ? classDocs.fields.get(name, descriptor) : null;
+	}
 
-			for (ParameterDef param : methodDef.getParameters()) {
-				String comment = param.getComment();
+	public String getMethodDoc(String owner, String name, String descriptor) {
+		ClassDocs classDocs = classes.get(owner);
+		return classDocs != null ? classDocs.methods.get(name, descriptor) : null;
+	}
 
-				if (comment != null) {
-					if (!addedParam && methodDef.getComment() != null) {
-						//Add a blank line before params when the method has a comment
-						parts.add("");
-						addedParam = true;
-					}
+	private static String getMethodDoc(MethodDef methodDef) {
+		List<String> parts = new ArrayList<>();
+
+		if (methodDef.getComment() != null) {
+			parts.add(methodDef.getComment());
+		}
 
-					parts.add(String.format("@param %s %s", param.getName(namespace), comment));
+		boolean addedParam = false;
+
+		for (ParameterDef param : methodDef.getParameters()) {
+			String comment = param.getComment();
+
+			if (comment != null) {
+				if (!addedParam && methodDef.getComment() != null) {
+					//Add a blank line before params when the method has a comment
+					parts.add("");
+					addedParam = true;
 				}
-			}
 
-			if (parts.isEmpty()) {
-				return null;
+				parts.add(String.format("@param %s %s", param.getName(NAMESPACE), comment));
 			}
+		}
 
-			return String.join("\n", parts);
+		if (parts.isEmpty()) {
+			return null;
 		}
 
-		return null;
+		return String.join("\n", parts);
 	}
 
 	private static TinyTree readMappings(File input) {
@@ -126,4 +153,65 @@ public class TinyJavadocProvider implements IFabricJavadocProvider {
 			throw new RuntimeException("Failed to read mappings", e);
 		}
 	}
+
+	private static final class ClassDocs {
+		private final String comment;
+		private final MemberTable fields;
+		private final MemberTable methods;
+
+		private ClassDocs(String comment, MemberTable fields, MemberTable methods) {
+			this.comment = comment;
+			this.fields = fields;
+			this.methods = methods;
+		}
+	}
+
+	/**
+	 * The documented members of a class, sorted by name and descriptor for binary search.
+	 */
+	private static final class MemberTable {
+		private static final Comparator<String[]> ORDER = Comparator.<String[], String>comparing(member -> member[0]).thenComparing(member -> member[1]);
+
+		private final String[] names;
+		private final String[] descriptors;
+		private final String[] docs;
+
+		private MemberTable(List<String[]> members) {
+			members.sort(ORDER);
+			names = new String[members.size()];
+			descriptors = new String[members.size()];
+			docs = new String[members.size()];
+
+			for (int i = 0; i < members.size(); i++) {
+				names[i] = members.get(i)[0];
+				// Descriptors like ()V are shared by many members
+				descriptors[i] = members.get(i)[1].intern();
+				docs[i] = members.get(i)[2];
+			}
+		}
+
+		private String get(String name, String descriptor) {
+			int low = 0;
+			int high = names.length - 1;
+
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int cmp = names[mid].compareTo(name);
+
+				if (cmp == 0) {
+					cmp = descriptors[mid].compareTo(descriptor);
+				}
+
+				if (cmp < 0) {
+					low = mid + 1;
+				} else if (cmp > 0) {
+					high = mid - 1;
+				} else {
+					return docs[mid];
+				}
+			}
+
+			return null;
+		}
+	}
 }
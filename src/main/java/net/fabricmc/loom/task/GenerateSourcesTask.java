@@ -26,25 +26,32 @@ package net.fabricmc.loom.task;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import org.gradle.api.tasks.TaskAction;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
 import net.fabricmc.loom.api.decompilers.LoomDecompiler;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
+import net.fabricmc.loom.decompilers.DecompilationCache;
+import net.fabricmc.loom.decompilers.DecompiledSourcesStore;
 import net.fabricmc.loom.decompilers.LineNumberRemapper;
+import net.fabricmc.loom.util.Checksum;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.gradle.ProgressLogger;
-import net.fabricmc.stitch.util.StitchUtil;
 
 public class GenerateSourcesTask extends AbstractLoomTask {
 	public final LoomDecompiler decompiler;
@@ -68,7 +75,29 @@ public class GenerateSourcesTask extends AbstractLoomTask {
 		Path compiledJar = getExtension().getMappingsProvider().mappedProvider.getMappedJar().toPath();
 		Path sourcesDestination = getMappedJarFileWithSuffix("-sources.jar").toPath();
 		Path linemap = getMappedJarFileWithSuffix("-sources.lmap").toPath();
-		decompiler.decompile(compiledJar, sourcesDestination, linemap, metadata);
+		DecompilationCache cache = new DecompilationCache(getMappedJarFileWithSuffix("-sources.state.json").toPath(), getEnvironment(metadata), getProject().getLogger());
+
+		if (cache.isUpToDate(compiledJar, sourcesDestination)) {
+			getProject().getLogger().lifecycle(":sources are up to date");
+			return;
+		}
+
+		DecompiledSourcesStore store = new DecompiledSourcesStore(getExtension().getDecompiledSourcesStore(), getStoreEnvironment(metadata));
+		String storeKey = store.getKey(compiledJar);
+
+		if (store.restore(storeKey, sourcesDestination, linemap)) {
+			getProject().getLogger().lifecycle(":using decompiled sources from {}", getExtension().getDecompiledSourcesStore());
+			cache.restored(compiledJar);
+		} else {
+			cache.decompile(decompiler, compiledJar, sourcesDestination, linemap, metadata, getTemporaryDir().toPath());
+
+			try {
+				store.publish(storeKey, sourcesDestination, linemap);
+				store.evict();
+			} catch (IOException e) {
+				getProject().getLogger().warn("Failed to store the decompiled sources", e);
+			}
+		}
 
 		if (Files.exists(linemap)) {
 			Path linemappedJarDestination = getMappedJarFileWithSuffix("-linemapped.jar").toPath();
@@ -76,17 +105,61 @@ public class GenerateSourcesTask extends AbstractLoomTask {
 			remapLineNumbers(compiledJar, linemap, linemappedJarDestination);
 
 			// In order for IDEs to recognize the new line mappings, we need to overwrite the existing compiled jar
-			// with the linemapped one. In the name of not destroying the existing jar, we will copy it to somewhere else.
+			// with the linemapped one. In the name of not destroying the existing jar, we will move it to somewhere else.
 			Path unlinemappedJar = getMappedJarFileWithSuffix("-unlinemapped.jar").toPath();
 
 			// The second time genSources is ran, we want to keep the existing unlinemapped jar.
 			if (!Files.exists(unlinemappedJar)) {
-				Files.copy(compiledJar, unlinemappedJar);
+				Files.move(compiledJar, unlinemappedJar);
+			}
+
+			Files.move(linemappedJarDestination, compiledJar, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		cache.save(compiledJar);
+	}
+
+	/**
+	 * Hashes everything apart from the compiled jar that the decompiled sources depend on.
+	 */
+	private String getEnvironment(DecompilationMetadata metadata) throws IOException {
+		Hasher hasher = Hashing.sha256().newHasher().putString(decompiler.name(), StandardCharsets.UTF_8);
+		List<Path> inputs = new ArrayList<>(metadata.libraries);
+		inputs.sort(null);
+		inputs.add(0, metadata.javaDocs);
+
+		for (Path input : inputs) {
+			hasher.putString(input.toString(), StandardCharsets.UTF_8);
+
+			if (Files.isRegularFile(input)) {
+				hasher.putLong(Files.size(input)).putLong(Files.getLastModifiedTime(input).toMillis());
 			}
+		}
+
+		return hasher.hash().toString();
+	}
 
-			Files.copy(linemappedJarDestination, compiledJar, StandardCopyOption.REPLACE_EXISTING);
-			Files.delete(linemappedJarDestination);
+	/**
+	 * Like {@link #getEnvironment}, but made of contents and file names rather than paths and timestamps,
+	 * so that it's the same on other machines.
+	 */
+	private String getStoreEnvironment(DecompilationMetadata metadata) throws IOException {
+		Hasher hasher = Hashing.sha256().newHasher()
+				.putString(decompiler.name(), StandardCharsets.UTF_8)
+				.putBytes(Checksum.sha256(metadata.javaDocs.toFile()));
+		List<String> libraries = new ArrayList<>();
+
+		for (Path library : metadata.libraries) {
+			libraries.add(library.getFileName() + "|" + (Files.isRegularFile(library) ? Files.size(library) : -1));
 		}
+
+		libraries.sort(null);
+
+		for (String library : libraries) {
+			hasher.putString(library, StandardCharsets.UTF_8);
+		}
+
+		return hasher.hash().toString();
 	}
 
 	private void remapLineNumbers(Path oldCompiledJar, Path linemap, Path linemappedJarDestination) throws IOException {
@@ -97,11 +170,7 @@ public class GenerateSourcesTask extends AbstractLoomTask {
 		ProgressLogger progressLogger = ProgressLogger.getProgressFactory(getProject(), getClass().getName());
 		progressLogger.start("Adjusting line numbers", "linemap");
 
-		try (StitchUtil.FileSystemDelegate inFs = StitchUtil.getJarFileSystem(oldCompiledJar.toFile(), true);
-			StitchUtil.FileSystemDelegate outFs = StitchUtil.getJarFileSystem(linemappedJarDestination.toFile(), true)) {
-			remapper.process(progressLogger, inFs.get().getPath("/"), outFs.get().getPath("/"));
-		}
-
+		remapper.process(progressLogger, oldCompiledJar, linemappedJarDestination);
 		progressLogger.completed();
 	}
 
@@ -31,7 +31,6 @@ import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.Set;
 
 import com.google.common.collect.ImmutableMap;
@@ -147,13 +146,8 @@ public class MigrateMappingsTask extends AbstractLoomTask {
 	}
 
 	private static TinyTree getMappings(File mappings) throws IOException {
-		Path temp = Files.createTempFile("mappings", ".tiny");
-
-		try (FileSystem fileSystem = FileSystems.newFileSystem(mappings.toPath(), (ClassLoader) null)) {
-			Files.copy(fileSystem.getPath("mappings/mappings.tiny"), temp, StandardCopyOption.REPLACE_EXISTING);
-		}
-
-		try (BufferedReader reader = Files.newBufferedReader(temp)) {
+		try (FileSystem fileSystem = FileSystems.newFileSystem(mappings.toPath(), (ClassLoader) null);
+				BufferedReader reader = Files.newBufferedReader(fileSystem.getPath("mappings/mappings.tiny"))) {
 			return TinyMappingFactory.loadWithDetection(reader);
 		}
 	}
@@ -35,8 +35,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -49,15 +54,18 @@ import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.jvm.tasks.Jar;
+import org.objectweb.asm.commons.Remapper;
 import org.zeroturnaround.zip.ZipUtil;
 
 import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.build.IncrementalJarRemapper;
 import net.fabricmc.loom.build.JarRemapper;
 import net.fabricmc.loom.build.MixinRefmapHelper;
 import net.fabricmc.loom.build.NestedJars;
 import net.fabricmc.loom.configuration.accesswidener.AccessWidenerJarProcessor;
 import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 import net.fabricmc.loom.util.JarUtil;
+import net.fabricmc.loom.util.RemapClasspath;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
 import net.fabricmc.loom.util.ZipReprocessorUtil;
 import net.fabricmc.loom.util.gradle.GradleSupport;
@@ -70,6 +78,7 @@ public class RemapJarTask extends Jar {
 	private final RegularFileProperty input;
 	private final Property<Boolean> addNestedDependencies;
 	private final Property<Boolean> remapAccessWidener;
+	private final Property<Boolean> incremental;
 	private final List<Action<TinyRemapper.Builder>> remapOptions = new ArrayList<>();
 	private final Property<String> fromM;
 	private final Property<String> toM;
@@ -81,12 +90,14 @@ public class RemapJarTask extends Jar {
 		input = GradleSupport.getfileProperty(getProject());
 		addNestedDependencies = getProject().getObjects().property(Boolean.class);
 		remapAccessWidener = getProject().getObjects().property(Boolean.class);
+		incremental = getProject().getObjects().property(Boolean.class);
 		fromM = getProject().getObjects().property(String.class);
 		toM = getProject().getObjects().property(String.class);
 		fromM.set("named");
 		toM.set("intermediary");
 		// false by default, I have no idea why I have to do it for this property and not the other one
 		remapAccessWidener.set(false);
+		incremental.set(false);
 	}
 
 	@TaskAction
@@ -140,24 +151,26 @@ public class RemapJarTask extends Jar {
 
 		project.getLogger().debug(rc.toString());
 
-		TinyRemapper remapper = remapperBuilder.build();
+		if (getIncremental().get() && remapOptions.isEmpty()) {
+			String environment = getIncrementalEnvironment(extension, fromM, toM, classpath);
+			new IncrementalJarRemapper(getTemporaryDir().toPath(), environment, project.getLogger()).remap(remapperBuilder, input, output, classpath, remapper -> remapAccessWidener(extension, output, remapper));
+		} else {
+			TinyRemapper remapper = remapperBuilder.build();
+
+			try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
+				outputConsumer.addNonClassFiles(input);
+				remapper.readClassPath(classpath);
+				remapper.readInputs(input);
+				remapper.apply(outputConsumer);
+			} catch (Exception e) {
+				remapper.finish();
+				throw new RuntimeException("Failed to remap " + input + " to " + output, e);
+			}
 
-		try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
-			outputConsumer.addNonClassFiles(input);
-			remapper.readClassPath(classpath);
-			remapper.readInputs(input);
-			remapper.apply(outputConsumer);
-		} catch (Exception e) {
+			remapAccessWidener(extension, output, remapper.getRemapper());
 			remapper.finish();
-			throw new RuntimeException("Failed to remap " + input + " to " + output, e);
-		}
-
-		if (getRemapAccessWidener().getOrElse(false) && extension.accessWidener != null) {
-			extension.getJarProcessorManager().getByType(AccessWidenerJarProcessor.class).remapAccessWidener(output, remapper.getRemapper());
 		}
 
-		remapper.finish();
-
 		if (!Files.exists(output)) {
 			throw new RuntimeException("Failed to remap " + input + " to " + output + " - file missing!");
 		}
@@ -201,6 +214,63 @@ public class RemapJarTask extends Jar {
 		}
 	}
 
+	private void remapAccessWidener(LoomGradleExtension extension, Path output, Remapper remapper) {
+		if (getRemapAccessWidener().getOrElse(false) && extension.accessWidener != null) {
+			try {
+				extension.getJarProcessorManager().getByType(AccessWidenerJarProcessor.class).remapAccessWidener(output, remapper);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to remap access widener", e);
+			}
+		}
+	}
+
+	/**
+	 * Hashes everything apart from the input jar that the remapped classes depend on.
+	 * The mappings and classpath entries are compared by size and modification time, and classpath directories
+	 * by those of every file in them. Mixin mappings are compared by content, as the annotation processor regenerates
+	 * them on every compile.
+	 */
+	private String getIncrementalEnvironment(LoomGradleExtension extension, String fromM, String toM, Path[] classpath) throws IOException {
+		MappingsProvider mappingsProvider = extension.getMappingsProvider();
+		Path mappings = extension.isForge() ? mappingsProvider.tinyMappingsWithSrg : mappingsProvider.tinyMappings.toPath();
+		Hasher hasher = Hashing.sha256().newHasher()
+				.putString(fromM, StandardCharsets.UTF_8)
+				.putString(toM, StandardCharsets.UTF_8);
+
+		for (Path path : Lists.asList(mappings, classpath)) {
+			hasher.putString(path.toString(), StandardCharsets.UTF_8);
+
+			if (Files.isRegularFile(path)) {
+				hasher.putLong(Files.size(path)).putLong(Files.getLastModifiedTime(path).toMillis());
+			} else if (Files.isDirectory(path)) {
+				// Such as the classes of another project in the build, whose supertypes and members the remap depends on
+				hashDirectory(path, hasher);
+			}
+		}
+
+		for (File mixinMapFile : extension.getAllMixinMappings()) {
+			if (mixinMapFile.exists()) {
+				hasher.putBytes(Files.readAllBytes(mixinMapFile.toPath()));
+			}
+		}
+
+		return hasher.hash().toString();
+	}
+
+	private static void hashDirectory(Path directory, Hasher hasher) throws IOException {
+		List<Path> files;
+
+		try (Stream<Path> stream = Files.walk(directory)) {
+			files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+
+		for (Path file : files) {
+			hasher.putString(directory.relativize(file).toString(), StandardCharsets.UTF_8)
+					.putLong(Files.size(file))
+					.putLong(Files.getLastModifiedTime(file).toMillis());
+		}
+	}
+
 	public void scheduleRemap() throws Throwable {
 		Project project = getProject();
 		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
@@ -306,10 +376,9 @@ public class RemapJarTask extends Jar {
 			files = getProject().getConfigurations().getByName("compileClasspath");
 		}
 
-		return files.getFiles().stream()
+		return RemapClasspath.of(files.getFiles().stream()
 				.map(File::toPath)
-				.filter(Files::exists)
-				.toArray(Path[]::new);
+				.collect(Collectors.toList()));
 	}
 
 	@InputFile
@@ -327,6 +396,14 @@ public class RemapJarTask extends Jar {
 		return remapAccessWidener;
 	}
 
+	/**
+	 * Whether to only remap the classes that changed since the last run. Ignored when remap options are set.
+	 */
+	@Input
+	public Property<Boolean> getIncremental() {
+		return incremental;
+	}
+
 	@Input
 	public Property<String> getFromM() {
 		return fromM;
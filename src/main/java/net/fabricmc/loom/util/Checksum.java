@@ -30,7 +30,6 @@ import java.nio.charset.StandardCharsets;
 
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
 
@@ -43,8 +42,7 @@ public class Checksum {
 		}
 
 		try {
-			HashCode hash = Files.asByteSource(file).hash(Hashing.sha1());
-			String hashString = hash.toString();
+			String hashString = HashLedger.hash(file, HashLedger.Algorithm.SHA1);
 			log.debug("Checksum check: '" + hashString + "' == '" + checksum + "'?");
 			return hashString.equals(checksum);
 		} catch (IOException e) {
@@ -56,8 +54,7 @@ public class Checksum {
 
 	public static byte[] sha256(File file) {
 		try {
-			HashCode hash = Files.asByteSource(file).hash(Hashing.sha256());
-			return hash.asBytes();
+			return HashCode.fromString(HashLedger.hash(file, HashLedger.Algorithm.SHA256)).asBytes();
 		} catch (IOException e) {
 			throw new RuntimeException("Failed to get file hash");
 		}
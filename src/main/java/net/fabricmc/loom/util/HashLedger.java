@@ -0,0 +1,370 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * Remembers the hashes of files, so that a file is only hashed again once its size, timestamp or inode change.
+ *
+ * <p>The ledger is a log in the Loom user cache that is shared by all builds: verified files are recorded as lines
+ * with the hash algorithm, its path, stat data and hash, which are appended in batches. Each daemon reads the log once
+ * and then only the lines other builds appended since. The log is compacted once it holds more than twice as many
+ * lines as there are files in it.
+ *
+ * <p>All access goes through a lock on a separate {@code .lock} file, shared for reading and exclusive for writing,
+ * so the log itself is never locked and can be rewritten in place on any platform. Compaction starts the log with
+ * a new generation in its first line, which tells the other daemons to read it again from the start.
+ *
+ * <p>Like git, a file hashed within {@link #RACY_MILLIS} of its last modification is hashed again the next
+ * time, since it may still change without its stat data changing.
+ */
+public final class HashLedger {
+	private static final Logger LOGGER = Logging.getLogger(HashLedger.class);
+	private static final long RACY_MILLIS = 2000;
+	private static final int MIN_COMPACTION_LINES = 1024;
+	private static final String HEADER = "hash-ledger\t";
+	// How often to look for lines appended by other builds
+	private static final long REFRESH_MILLIS = 1000;
+	// How long new lines may wait before they are written, unless there are enough of them for a batch
+	private static final long FLUSH_MILLIS = 1000;
+	private static final int FLUSH_BATCH = 256;
+
+	@Nullable
+	private static volatile HashLedger instance;
+
+	private final Path file;
+	private final Path lockFile;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	// Lines that are not written yet, in the order they were recorded
+	private final Map<String, Entry> pending = new LinkedHashMap<>();
+	@Nullable
+	private String generation;
+	private long readOffset;
+	private int lines;
+	private long lastRefresh;
+	private long lastFlush;
+
+	private HashLedger(Path file) {
+		this.file = file;
+		this.lockFile = file.resolveSibling(file.getFileName() + ".lock");
+	}
+
+	/**
+	 * Sets the ledger file, called when the plugin is applied. Until then, files are always hashed.
+	 */
+	public static synchronized void init(File ledgerFile) {
+		if (instance == null || !instance.file.equals(ledgerFile.toPath())) {
+			if (instance != null) {
+				instance.flush();
+			}
+
+			instance = new HashLedger(ledgerFile.toPath());
+		}
+	}
+
+	/**
+	 * Writes the hashes that are still waiting for a batch, called when a build finishes.
+	 */
+	public static void flushPending() {
+		HashLedger ledger = instance;
+
+		if (ledger != null) {
+			ledger.flush();
+		}
+	}
+
+	/**
+	 * @return the hash of the file as a lowercase hex string, computed with the named algorithm
+	 */
+	public static String hash(File file, Algorithm algorithm) throws IOException {
+		HashLedger ledger = instance;
+
+		if (ledger == null) {
+			return com.google.common.io.Files.asByteSource(file).hash(algorithm.function).toString();
+		}
+
+		return ledger.get(file.toPath().toAbsolutePath().normalize(), algorithm);
+	}
+
+	private String get(Path path, Algorithm algorithm) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		String key = algorithm.name() + '\t' + path;
+		refresh();
+
+		Entry entry = entries.get(key);
+
+		if (entry != null && entry.matches(attributes)) {
+			return entry.hash;
+		}
+
+		String hash = com.google.common.io.Files.asByteSource(path.toFile()).hash(algorithm.function).toString();
+		long modified = attributes.lastModifiedTime().toMillis();
+
+		// The file may still change without its stat data changing, don't trust the hash next time
+		if (System.currentTimeMillis() - modified >= RACY_MILLIS) {
+			// Re-read the attributes so that a file that changed while it was hashed isn't recorded
+			if (Files.readAttributes(path, BasicFileAttributes.class).lastModifiedTime().toMillis() == modified) {
+				append(key, new Entry(attributes, hash));
+			}
+		}
+
+		return hash;
+	}
+
+	private synchronized void refresh() {
+		if (System.currentTimeMillis() - lastRefresh < REFRESH_MILLIS) {
+			return;
+		}
+
+		lastRefresh = System.currentTimeMillis();
+
+		if (!Files.exists(file)) {
+			return;
+		}
+
+		try (FileChannel lock = openLock(); FileLock ignored = lock.lock(0, Long.MAX_VALUE, true);
+				FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			read(channel);
+		} catch (IOException | OverlappingFileLockException e) {
+			LOGGER.info("Failed to read the hash ledger {}", file, e);
+		}
+	}
+
+	private synchronized void append(String key, Entry entry) {
+		entries.put(key, entry);
+		pending.put(key, entry);
+
+		if (pending.size() >= FLUSH_BATCH || System.currentTimeMillis() - lastFlush >= FLUSH_MILLIS) {
+			flush();
+		}
+	}
+
+	private synchronized void flush() {
+		lastFlush = System.currentTimeMillis();
+
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		try (FileChannel lock = openLock(); FileLock ignored = lock.lock();
+				FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// Catch up first, so that the line count is right and a compaction keeps what others appended
+			read(channel);
+
+			if (generation == null || (lines > MIN_COMPACTION_LINES && lines > entries.size() * 2)) {
+				compact(channel);
+			} else {
+				StringBuilder text = new StringBuilder();
+
+				for (Map.Entry<String, Entry> entry : pending.entrySet()) {
+					text.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+				}
+
+				ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+				long position = channel.size();
+
+				while (bytes.hasRemaining()) {
+					position += channel.write(bytes, position);
+				}
+
+				// Our own lines don't need to be read back
+				readOffset = position;
+				lines += pending.size();
+			}
+
+			pending.clear();
+		} catch (IOException | OverlappingFileLockException e) {
+			LOGGER.info("Failed to update the hash ledger {}", file, e);
+		}
+	}
+
+	private FileChannel openLock() throws IOException {
+		Files.createDirectories(lockFile.getParent());
+		return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Reads the lines appended since the last read, or the whole ledger if it was compacted since. Called with the lock held.
+	 */
+	private void read(FileChannel channel) throws IOException {
+		long size = channel.size();
+		String header = readHeader(channel, size);
+
+		if (header == null || !header.equals(generation) || size < readOffset) {
+			// A new or compacted ledger, or one without a header that the next flush rewrites
+			entries.clear();
+			entries.putAll(pending);
+			generation = header;
+			readOffset = header != null ? (HEADER + header + '\n').getBytes(StandardCharsets.UTF_8).length : size;
+			lines = 0;
+		}
+
+		if (size <= readOffset) {
+			return;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) (size - readOffset));
+		channel.read(buffer, readOffset);
+		String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+		// Only consume whole lines, the last one may have been cut short by a failed write
+		int end = text.lastIndexOf('\n') + 1;
+
+		for (String line : text.substring(0, end).split("\n")) {
+			String[] parts = line.split("\t");
+			Entry entry = Entry.parse(parts);
+
+			if (entry != null) {
+				String key = parts[0] + '\t' + parts[1];
+
+				// Ours are newer than anything in the ledger
+				if (!pending.containsKey(key)) {
+					entries.put(key, entry);
+				}
+
+				lines++;
+			}
+		}
+
+		readOffset += text.substring(0, end).getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	/**
+	 * @return the generation in the first line of the ledger, or null if it has none
+	 */
+	@Nullable
+	private static String readHeader(FileChannel channel, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, 128));
+		channel.read(buffer, 0);
+		String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+		int end = text.indexOf('\n');
+
+		if (end < 0 || !text.startsWith(HEADER)) {
+			return null;
+		}
+
+		return text.substring(HEADER.length(), end);
+	}
+
+	/**
+	 * Rewrites the ledger in place with only the current entries, under a new generation. Called with the exclusive lock held.
+	 */
+	private void compact(FileChannel channel) throws IOException {
+		generation = UUID.randomUUID().toString();
+		StringBuilder text = new StringBuilder(HEADER).append(generation).append('\n');
+
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			text.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+		}
+
+		ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+		channel.truncate(0);
+
+		while (bytes.hasRemaining()) {
+			channel.write(bytes, bytes.position());
+		}
+
+		readOffset = bytes.limit();
+		lines = entries.size();
+	}
+
+	public enum Algorithm {
+		SHA1(Hashing.sha1()),
+		SHA256(Hashing.sha256());
+
+		private final HashFunction function;
+
+		Algorithm(HashFunction function) {
+			this.function = function;
+		}
+	}
+
+	private static final class Entry {
+		private final long size;
+		private final long modified;
+		private final String fileKey;
+		private final String hash;
+
+		private Entry(long size, long modified, String fileKey, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.fileKey = fileKey;
+			this.hash = hash;
+		}
+
+		private Entry(BasicFileAttributes attributes, String hash) {
+			// The file key is the device and inode on Unix, and null where it isn't supported
+			this(attributes.size(), attributes.lastModifiedTime().toMillis(), String.valueOf(attributes.fileKey()), hash);
+		}
+
+		private boolean matches(BasicFileAttributes attributes) {
+			return size == attributes.size() && modified == attributes.lastModifiedTime().toMillis()
+					&& fileKey.equals(String.valueOf(attributes.fileKey()));
+		}
+
+		/**
+		 * @param parts the algorithm, path, size, timestamp, file key and hash of a line
+		 */
+		@Nullable
+		private static Entry parse(String[] parts) {
+			if (parts.length != 6) {
+				return null;
+			}
+
+			try {
+				Algorithm.valueOf(parts[0]);
+				return new Entry(Long.parseLong(parts[2]), Long.parseLong(parts[3]), parts[4], parts[5]);
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return size + "\t" + modified + "\t" + fileKey + "\t" + hash;
+		}
+	}
+}
@@ -28,12 +28,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 
-import javax.annotation.Nullable;
-
-import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.logging.Logger;
 
@@ -45,13 +40,9 @@ public class HashedDownloadUtil {
 			delete(to);
 		}
 
-		if (to.exists()) {
-			String sha1 = getSha1(to, logger);
-
-			if (expectedHash.equals(sha1)) {
-				// The hash in the sha1 file matches
-				return;
-			}
+		// Only hashed if the file changed since it was last verified
+		if (Checksum.equals(to, expectedHash)) {
+			return;
 		}
 
 		HttpURLConnection connection = (HttpURLConnection) from.openConnection();
@@ -79,49 +70,18 @@ public class HashedDownloadUtil {
 		}
 
 		if (!Checksum.equals(to, expectedHash)) {
-			String actualHash = Files.asByteSource(to).hash(Hashing.sha1()).toString();
+			String actualHash = HashLedger.hash(to, HashLedger.Algorithm.SHA1);
 			delete(to);
 
 			throw new IOException(String.format("Downloaded file from %s to %s and got unexpected hash of %s expected %s", from, to, actualHash, expectedHash));
 		}
-
-		saveSha1(to, expectedHash, logger);
 	}
 
+	// Left behind by older versions, which recorded the hash next to the file
 	private static File getSha1File(File file) {
 		return new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".sha1");
 	}
 
-	@Nullable
-	private static String getSha1(File to, Logger logger) {
-		File sha1File = getSha1File(to);
-
-		if (!sha1File.exists()) {
-			return null;
-		}
-
-		try {
-			return Files.asCharSource(sha1File, StandardCharsets.UTF_8).read();
-		} catch (IOException e) {
-			logger.warn("Error reading sha1 file '{}'.", sha1File);
-			return null;
-		}
-	}
-
-	private static void saveSha1(File to, String sha1, Logger logger) {
-		File sha1File = getSha1File(to);
-
-		try {
-			if (!sha1File.exists()) {
-				sha1File.createNewFile();
-			}
-
-			Files.asCharSink(sha1File, StandardCharsets.UTF_8).write(sha1);
-		} catch (IOException e) {
-			logger.warn("Error saving sha1 file '{}'.", sha1File, e);
-		}
-	}
-
 	public static void delete(File file) {
 		if (file.exists()) {
 			file.delete();
@@ -0,0 +1,191 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * The files of a jar, held in memory so that several transformations can be applied to them
+ * without writing and reopening the jar in between.
+ *
+ * <p>Entries are kept sorted by name and can be modified from several threads.
+ */
+public final class JarContents {
+	private final NavigableMap<String, byte[]> entries = new ConcurrentSkipListMap<>();
+
+	public static JarContents read(File jar) throws IOException {
+		JarContents contents = new JarContents();
+		contents.addAll(jar, "", name -> true, true);
+		return contents;
+	}
+
+	/**
+	 * Adds the files of a jar.
+	 *
+	 * @param prefix  only add the files in this directory, without it in their names, or empty for all files
+	 * @param filter  tests the names of the files to add, after the prefix is removed
+	 * @param replace whether to replace existing files
+	 */
+	public void addAll(File jar, String prefix, Predicate<String> filter, boolean replace) throws IOException {
+		try (ZipFile zip = new ZipFile(jar)) {
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+
+			while (zipEntries.hasMoreElements()) {
+				ZipEntry entry = zipEntries.nextElement();
+				String name = getName(entry, prefix, filter, replace);
+
+				if (name != null) {
+					try (InputStream is = zip.getInputStream(entry)) {
+						entries.put(name, ByteStreams.toByteArray(is));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Like {@link #addAll(File, String, Predicate, boolean)}, but reads the jar from a stream.
+	 */
+	public void addAll(InputStream jar, String prefix, Predicate<String> filter, boolean replace) throws IOException {
+		ZipInputStream zis = new ZipInputStream(jar);
+		ZipEntry entry;
+
+		while ((entry = zis.getNextEntry()) != null) {
+			String name = getName(entry, prefix, filter, replace);
+
+			if (name != null) {
+				entries.put(name, ByteStreams.toByteArray(zis));
+			}
+		}
+	}
+
+	/**
+	 * Adds the files of other contents.
+	 */
+	public void addAll(JarContents other, boolean replace) {
+		for (Map.Entry<String, byte[]> entry : other.entries.entrySet()) {
+			if (replace) {
+				entries.put(entry.getKey(), entry.getValue());
+			} else {
+				entries.putIfAbsent(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private String getName(ZipEntry entry, String prefix, Predicate<String> filter, boolean replace) {
+		if (entry.isDirectory() || !entry.getName().startsWith(prefix)) {
+			return null;
+		}
+
+		String name = entry.getName().substring(prefix.length());
+
+		if (name.isEmpty() || !filter.test(name) || !replace && entries.containsKey(name)) {
+			return null;
+		}
+
+		return name;
+	}
+
+	/**
+	 * @return the entries by name, changes to it are reflected in these contents
+	 */
+	public NavigableMap<String, byte[]> getEntries() {
+		return entries;
+	}
+
+	public byte[] get(String name) {
+		return entries.get(name);
+	}
+
+	public void put(String name, byte[] bytes) {
+		entries.put(name, bytes);
+	}
+
+	/**
+	 * Writes the contents to a jar, with directory entries for all parent directories.
+	 * The jar is written next to the target first, so a failure never leaves a partial jar behind.
+	 */
+	public void write(File jar) throws IOException {
+		TreeSet<String> directories = new TreeSet<>();
+
+		for (String name : entries.keySet()) {
+			for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+				directories.add(name.substring(0, i + 1));
+			}
+		}
+
+		Path tmp = jar.toPath().resolveSibling(jar.getName() + ".tmp");
+
+		try (OutputStream os = Files.newOutputStream(tmp); ZipOutputStream zos = new ZipOutputStream(os)) {
+			byte[] manifest = entries.get(JarFile.MANIFEST_NAME);
+
+			// The manifest has to come first for JarInputStream to find it
+			if (manifest != null) {
+				zos.putNextEntry(new ZipEntry("META-INF/"));
+				zos.closeEntry();
+				directories.remove("META-INF/");
+				writeEntry(zos, JarFile.MANIFEST_NAME, manifest);
+			}
+
+			for (String directory : directories) {
+				zos.putNextEntry(new ZipEntry(directory));
+				zos.closeEntry();
+			}
+
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				if (manifest == null || !entry.getKey().equals(JarFile.MANIFEST_NAME)) {
+					writeEntry(zos, entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		Files.move(tmp, jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void writeEntry(ZipOutputStream zos, String name, byte[] bytes) throws IOException {
+		zos.putNextEntry(new ZipEntry(name));
+		zos.write(bytes);
+		zos.closeEntry();
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Rewrites a jar in a single pass, running every entry through a chain of {@link Transformer}s.
+ * The jar is read once and the output is written once, no matter how many transformers there are.
+ */
+public final class JarEntryRewriter {
+	private final List<Transformer> transformers = new ArrayList<>();
+
+	public JarEntryRewriter add(Transformer transformer) {
+		transformers.add(transformer);
+		return this;
+	}
+
+	/**
+	 * Rewrites the jar in place. The jar is only replaced if a transformer changed or removed an entry.
+	 *
+	 * @param jar the jar file
+	 * @throws IOException if an {@link IOException} occurred while reading or writing the jar
+	 */
+	public void rewrite(Path jar) throws IOException {
+		if (transformers.isEmpty()) {
+			return;
+		}
+
+		Path temp = jar.resolveSibling(jar.getFileName() + ".tmp");
+		boolean changed = false;
+
+		try (ZipFile zip = new ZipFile(jar.toFile())) {
+			for (Transformer transformer : transformers) {
+				transformer.prepare(zip);
+			}
+
+			try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					ZipEntry outputEntry = new ZipEntry(entry.getName());
+					outputEntry.setTime(entry.getTime());
+
+					if (entry.isDirectory()) {
+						out.putNextEntry(outputEntry);
+						out.closeEntry();
+						continue;
+					}
+
+					byte[] input;
+
+					try (InputStream in = zip.getInputStream(entry)) {
+						input = IOUtils.toByteArray(in);
+					}
+
+					byte[] output = input;
+
+					for (Transformer transformer : transformers) {
+						output = transformer.transform(entry.getName(), output);
+
+						if (output == null) {
+							break;
+						}
+					}
+
+					if (output != input) {
+						changed = true;
+					}
+
+					if (output != null) {
+						out.putNextEntry(outputEntry);
+						out.write(output);
+						out.closeEntry();
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+
+		if (changed) {
+			Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.delete(temp);
+		}
+	}
+
+	/**
+	 * A transformation of jar entries.
+	 */
+	@FunctionalInterface
+	public interface Transformer {
+		/**
+		 * Reads any metadata needed from the jar before the entries are transformed.
+		 *
+		 * @param zip the input jar
+		 * @throws IOException if an {@link IOException} occurred while reading the jar
+		 */
+		default void prepare(ZipFile zip) throws IOException {
+		}
+
+		/**
+		 * Transforms an entry.
+		 *
+		 * @param name  the entry name
+		 * @param input the entry contents
+		 * @return the input array if unchanged, the new contents, or {@code null} to remove the entry
+		 * @throws IOException if an {@link IOException} occurred while transforming
+		 */
+		@Nullable
+		byte[] transform(String name, byte[] input) throws IOException;
+	}
+}
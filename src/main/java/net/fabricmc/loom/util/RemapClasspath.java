@@ -0,0 +1,322 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Prepares classpaths for tiny-remapper, with a cache of the class hierarchy of every jar that lives as long as the daemon.
+ *
+ * <p>tiny-remapper only needs the hierarchy and member declarations of classpath classes, but it reads and parses
+ * the whole jar every time, and a remapper can't be handed classes another remapper has read. So each jar is
+ * reduced once to a hierarchy jar: the same classes without code, debug info or resources, and without
+ * compression. Remappers read those instead, which is several times less data to inflate and parse than the
+ * Minecraft jar and its libraries.
+ *
+ * <p>Hierarchy jars are kept on disk, keyed by the hash of the jar they were made from, and the least recently
+ * used ones are deleted once they take up more than {@link #MAX_CACHE_SIZE}. Their use is recorded on a
+ * {@code .used} file next to them rather than on the jar itself, so a hierarchy jar keeps its timestamp
+ * and an incremental remap that compares the classpath by timestamp can reuse its work. Which hierarchy jar belongs to
+ * a jar is remembered by path, size and timestamp for the {@link #MAX_REMEMBERED_JARS} most recently used jars.
+ * Entries are deduplicated, and jars without any classes (natives, assets, resource-only libraries) are left out.
+ */
+public final class RemapClasspath {
+	private static final Logger LOGGER = Logging.getLogger(RemapClasspath.class);
+	private static final long MAX_CACHE_SIZE = 512L * 1024 * 1024;
+	private static final int MAX_REMEMBERED_JARS = 4096;
+	// Bump this when the contents of hierarchy jars change
+	private static final int FORMAT_VERSION = 1;
+	// The jar itself, for when it can't be reduced
+	private static final Path ORIGINAL = new File("").toPath();
+	// Stands for jars without classes
+	private static final Path EMPTY = new File("empty").toPath();
+
+	@Nullable
+	private static Path cacheDirectory;
+	// Hierarchy jars by path, size and timestamp of the jar, the most recently used last
+	private static final Map<String, Path> HIERARCHY_JARS = new LinkedHashMap<String, Path>(16, 0.75F, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Path> eldest) {
+			return size() > MAX_REMEMBERED_JARS;
+		}
+	};
+
+	private RemapClasspath() {
+	}
+
+	/**
+	 * Sets the directory of the hierarchy jars, called when the plugin is applied. Until then, jars are used as they are.
+	 */
+	public static synchronized void init(File directory) {
+		cacheDirectory = directory.toPath();
+	}
+
+	public static Path[] of(Path... paths) {
+		return of(Arrays.asList(paths));
+	}
+
+	public static Path[] of(Collection<Path> paths) {
+		Set<Path> classpath = new LinkedHashSet<>();
+
+		for (Path path : paths) {
+			Path normalized = path.toAbsolutePath().normalize();
+
+			if (Files.isDirectory(normalized)) {
+				classpath.add(normalized);
+			} else if (Files.isRegularFile(normalized)) {
+				Path hierarchyJar = getHierarchyJar(normalized);
+
+				if (hierarchyJar == ORIGINAL) {
+					classpath.add(normalized);
+				} else if (hierarchyJar != EMPTY) {
+					classpath.add(hierarchyJar);
+				}
+			}
+		}
+
+		return classpath.toArray(new Path[0]);
+	}
+
+	private static Path getHierarchyJar(Path jar) {
+		Path directory;
+		String key = jar + "|" + jar.toFile().length() + "|" + jar.toFile().lastModified();
+		Path hierarchyJar;
+
+		synchronized (RemapClasspath.class) {
+			directory = cacheDirectory;
+			hierarchyJar = HIERARCHY_JARS.get(key);
+		}
+
+		if (hierarchyJar == ORIGINAL || hierarchyJar == EMPTY) {
+			return hierarchyJar;
+		}
+
+		// Another build may have evicted it in the meantime
+		if (hierarchyJar != null && markUsed(hierarchyJar)) {
+			return hierarchyJar;
+		}
+
+		try {
+			hierarchyJar = createHierarchyJar(jar, directory);
+		} catch (IOException | RuntimeException e) {
+			// Let tiny-remapper read the jar itself, and report it if it can't
+			LOGGER.info("Could not create the hierarchy jar of {}", jar, e);
+			hierarchyJar = ORIGINAL;
+		}
+
+		synchronized (RemapClasspath.class) {
+			HIERARCHY_JARS.put(key, hierarchyJar);
+		}
+
+		return hierarchyJar;
+	}
+
+	private static Path createHierarchyJar(Path jar, @Nullable Path directory) throws IOException {
+		if (directory == null) {
+			return hasClasses(jar) ? ORIGINAL : EMPTY;
+		}
+
+		String hash = BaseEncoding.base16().lowerCase().encode(Checksum.sha256(jar.toFile()));
+		Path hierarchyJar = directory.resolve(hash + "-v" + FORMAT_VERSION + ".jar");
+
+		if (markUsed(hierarchyJar)) {
+			return hierarchyJar;
+		}
+
+		Files.createDirectories(directory);
+		Path tmp = Files.createTempFile(directory, hash, ".tmp");
+		boolean empty = true;
+
+		try {
+			try (ZipFile zip = new ZipFile(jar.toFile()); OutputStream os = Files.newOutputStream(tmp); ZipOutputStream zos = new ZipOutputStream(os)) {
+				zos.setMethod(ZipOutputStream.DEFLATED);
+				zos.setLevel(0);
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+
+					if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+						continue;
+					}
+
+					byte[] bytes;
+
+					try (InputStream is = zip.getInputStream(entry)) {
+						bytes = stripClass(ByteStreams.toByteArray(is));
+					}
+
+					zos.putNextEntry(new ZipEntry(entry.getName()));
+					zos.write(bytes);
+					zos.closeEntry();
+					empty = false;
+				}
+			}
+
+			if (empty) {
+				return EMPTY;
+			}
+
+			Files.move(tmp, hierarchyJar, StandardCopyOption.REPLACE_EXISTING);
+			markUsed(hierarchyJar);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+
+		evict(directory);
+		return hierarchyJar;
+	}
+
+	/**
+	 * Records that the hierarchy jar was used just now, for eviction.
+	 *
+	 * @return false if the hierarchy jar doesn't exist
+	 */
+	private static boolean markUsed(Path hierarchyJar) {
+		if (!Files.isRegularFile(hierarchyJar)) {
+			return false;
+		}
+
+		File used = getUsedFile(hierarchyJar.toFile());
+
+		try {
+			if (!used.setLastModified(System.currentTimeMillis())) {
+				Files.write(used.toPath(), new byte[0]);
+			}
+		} catch (IOException e) {
+			// It is then evicted earlier than it should be, which is harmless
+			LOGGER.debug("Could not record the use of {}", hierarchyJar, e);
+		}
+
+		return true;
+	}
+
+	private static File getUsedFile(File hierarchyJar) {
+		return new File(hierarchyJar.getPath() + ".used");
+	}
+
+	/**
+	 * @return the class with only what tiny-remapper reads from classpath classes: the hierarchy and member declarations
+	 */
+	private static byte[] stripClass(byte[] bytes) {
+		ClassWriter writer = new ClassWriter(0);
+
+		new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9, writer) {
+			@Override
+			public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+				super.visitField(access, name, descriptor, signature, value).visitEnd();
+				return null;
+			}
+
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				super.visitMethod(access, name, descriptor, signature, exceptions).visitEnd();
+				return null;
+			}
+		}, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+		return writer.toByteArray();
+	}
+
+	private static boolean hasClasses(Path jar) throws IOException {
+		try (ZipFile zip = new ZipFile(jar.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+
+			while (entries.hasMoreElements()) {
+				if (entries.nextElement().getName().endsWith(".class")) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes the least recently used hierarchy jars until they take up less than {@link #MAX_CACHE_SIZE}.
+	 */
+	private static void evict(Path directory) throws IOException {
+		File[] files;
+
+		try (Stream<Path> stream = Files.list(directory)) {
+			files = stream.map(Path::toFile).filter(file -> file.getName().endsWith(".jar")).toArray(File[]::new);
+		}
+
+		long size = Stream.of(files).mapToLong(File::length).sum();
+
+		if (size <= MAX_CACHE_SIZE) {
+			return;
+		}
+
+		// Jars without a record of their use are from before they had one, or lost it, so they go first
+		Map<File, Long> lastUsed = Stream.of(files).collect(Collectors.toMap(file -> file, file -> getUsedFile(file).lastModified()));
+		Arrays.sort(files, Comparator.comparingLong(lastUsed::get));
+
+		for (File file : files) {
+			if (size <= MAX_CACHE_SIZE) {
+				break;
+			}
+
+			long length = file.length();
+
+			// A build reading it on Windows keeps it from being deleted, it goes next time
+			if (file.delete()) {
+				getUsedFile(file).delete();
+				size -= length;
+			}
+		}
+	}
+}
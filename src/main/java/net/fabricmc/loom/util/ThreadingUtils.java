@@ -27,16 +27,80 @@ package net.fabricmc.loom.util;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * Runs jobs in parallel on a work-stealing pool that is shared by all projects in a build.
+ *
+ * <p>If a job fails, the jobs of the same batch that haven't started yet are skipped
+ * and the first failure is rethrown once the running jobs have finished.
+ */
 public class ThreadingUtils {
+	private static final Logger LOGGER = Logging.getLogger(ThreadingUtils.class);
+	private static ForkJoinPool pool;
+	// The build the pool was set up for, or null if it was created with the default parallelism outside of one
+	private static Gradle build;
+
+	/**
+	 * Sets up the pool for a build. Only the first call of a build has an effect, the pool is never
+	 * replaced while the build runs since other projects may be using it. Once the build finishes the pool
+	 * is dropped, and its threads end once they are idle.
+	 *
+	 * @param parallelism the maximum number of threads, or 0 or less to use all available processors
+	 */
+	public static synchronized void setParallelism(Gradle gradle, int parallelism) {
+		if (parallelism <= 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+
+		// Included builds run as part of the same build
+		while (gradle.getParent() != null) {
+			gradle = gradle.getParent();
+		}
+
+		if (build == gradle) {
+			if (pool.getParallelism() != parallelism) {
+				LOGGER.warn("Ignoring a parallelism of {}, this build already uses {} threads", parallelism, pool.getParallelism());
+			}
+
+			return;
+		}
+
+		Gradle finishedBuild = gradle;
+		build = gradle;
+		pool = new ForkJoinPool(parallelism);
+
+		gradle.buildFinished(result -> {
+			synchronized (ThreadingUtils.class) {
+				if (build == finishedBuild) {
+					build = null;
+					pool = null;
+				}
+			}
+		});
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		}
+
+		return pool;
+	}
+
 	public static <T> void run(Collection<T> values, UnsafeConsumer<T> action) {
 		run(values.stream()
 				.<UnsafeRunnable>map(t -> () -> action.accept(t))
@@ -48,28 +112,12 @@ public class ThreadingUtils {
 	}
 
 	public static void run(Collection<UnsafeRunnable> jobs) {
-		try {
-			ExecutorService service = Executors.newFixedThreadPool(Math.min(jobs.size(), Runtime.getRuntime().availableProcessors() / 2));
-			List<Future<?>> futures = new LinkedList<>();
-
-			for (UnsafeRunnable runnable : jobs) {
-				futures.add(service.submit(() -> {
-					try {
-						runnable.run();
-					} catch (Throwable throwable) {
-						throw new RuntimeException(throwable);
-					}
-				}));
-			}
-
-			for (Future<?> future : futures) {
-				future.get();
-			}
-
-			service.shutdownNow();
-		} catch (InterruptedException | ExecutionException e) {
-			throw new RuntimeException(e);
-		}
+		get(jobs.stream()
+				.<UnsafeCallable<Void>>map(job -> () -> {
+					job.run();
+					return null;
+				})
+				.collect(Collectors.toList()));
 	}
 
 	public static <T, R> List<R> get(Collection<T> values, Function<T, R> action) {
@@ -84,31 +132,57 @@ public class ThreadingUtils {
 	}
 
 	public static <T> List<T> get(Collection<UnsafeCallable<T>> jobs) {
-		try {
-			ExecutorService service = Executors.newFixedThreadPool(Math.min(jobs.size(), Runtime.getRuntime().availableProcessors() / 2));
-			List<Future<T>> futures = new LinkedList<>();
-
-			for (UnsafeCallable<T> runnable : jobs) {
-				futures.add(service.submit(() -> {
-					try {
-						return runnable.call();
-					} catch (Throwable throwable) {
-						throw new RuntimeException(throwable);
-					}
-				}));
-			}
+		ForkJoinPool executor = getPool();
+		List<ForkJoinTask<T>> tasks = new ArrayList<>(jobs.size());
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicLong totalNanos = new AtomicLong();
+		AtomicLong slowestNanos = new AtomicLong();
+		long start = System.nanoTime();
+
+		for (UnsafeCallable<T> job : jobs) {
+			tasks.add(executor.submit(() -> {
+				if (failure.get() != null) {
+					throw new CancellationException();
+				}
+
+				long jobStart = System.nanoTime();
+
+				try {
+					return job.call();
+				} catch (Throwable throwable) {
+					failure.compareAndSet(null, throwable);
+					throw new RuntimeException(throwable);
+				} finally {
+					long jobNanos = System.nanoTime() - jobStart;
+					totalNanos.addAndGet(jobNanos);
+					slowestNanos.accumulateAndGet(jobNanos, Math::max);
+				}
+			}));
+		}
 
-			List<T> result = new ArrayList<>();
+		List<T> result = new ArrayList<>(tasks.size());
 
-			for (Future<T> future : futures) {
-				result.add(future.get());
+		try {
+			for (ForkJoinTask<T> task : tasks) {
+				try {
+					result.add(task.get());
+				} catch (ExecutionException | CancellationException e) {
+					// The failure is rethrown below after all jobs have settled
+				}
 			}
-
-			service.shutdownNow();
-			return result;
-		} catch (InterruptedException | ExecutionException e) {
+		} catch (InterruptedException e) {
+			tasks.forEach(task -> task.cancel(true));
 			throw new RuntimeException(e);
 		}
+
+		if (failure.get() != null) {
+			throw new RuntimeException(failure.get());
+		}
+
+		LOGGER.debug("Ran {} jobs on {} threads in {} ms (cumulative {} ms, slowest {} ms)",
+				tasks.size(), executor.getParallelism(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+				TimeUnit.NANOSECONDS.toMillis(totalNanos.get()), TimeUnit.NANOSECONDS.toMillis(slowestNanos.get()));
+		return result;
 	}
 
 	public interface UnsafeRunnable {
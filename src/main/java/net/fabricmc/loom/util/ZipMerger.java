@@ -0,0 +1,294 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.ZipException;
+
+/**
+ * Merges zips into one without inflating and deflating their entries again.
+ *
+ * <p>The central directories of the sources are read up front; the entries are then copied as they are stored,
+ * compressed bytes included, in one sequential write. Zip64 is not supported, which is fine for Minecraft jars.
+ */
+public final class ZipMerger {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	// Only the UTF-8 names flag is kept, the sizes are always in the local headers of the output
+	private static final int UTF8_FLAG = 0x0800;
+
+	private ZipMerger() {
+	}
+
+	/**
+	 * Merges the sources into the output. If several sources contain an entry, the last one wins,
+	 * but the entry keeps the position it had in the first source containing it.
+	 */
+	public static void merge(Path output, Source... sources) throws IOException {
+		List<FileChannel> channels = new ArrayList<>(sources.length);
+		Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+
+		try {
+			Map<String, Entry> entries = new LinkedHashMap<>();
+
+			for (Source source : sources) {
+				FileChannel channel = FileChannel.open(source.path, StandardOpenOption.READ);
+				channels.add(channel);
+
+				for (Entry entry : readCentralDirectory(source.path, channel)) {
+					if (source.filter.test(entry.name)) {
+						entries.put(entry.name, entry);
+					}
+				}
+			}
+
+			if (entries.size() >= 0xFFFF) {
+				throw new ZipException("Too many entries for a zip without zip64 support: " + entries.size());
+			}
+
+			try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				write(entries.values(), out);
+			}
+
+			Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			for (FileChannel channel : channels) {
+				channel.close();
+			}
+
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static List<Entry> readCentralDirectory(Path path, FileChannel channel) throws IOException {
+		long size = channel.size();
+		// The end record is followed by a comment of up to 0xFFFF bytes
+		int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+		ByteBuffer tail = read(channel, size - tailSize, tailSize);
+		int end = -1;
+
+		for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+				end = i;
+				break;
+			}
+		}
+
+		if (end < 0) {
+			throw new ZipException("Not a zip file: " + path);
+		}
+
+		int count = tail.getShort(end + 10) & 0xFFFF;
+		long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+		long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+		if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+			throw new ZipException("Zip64 is not supported: " + path);
+		}
+
+		ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+		List<Entry> entries = new ArrayList<>(count);
+		int position = 0;
+
+		for (int i = 0; i < count; i++) {
+			if (directory.getInt(position) != CENTRAL_HEADER) {
+				throw new ZipException("Invalid central directory in " + path);
+			}
+
+			int nameLength = directory.getShort(position + 28) & 0xFFFF;
+			int extraLength = directory.getShort(position + 30) & 0xFFFF;
+			int commentLength = directory.getShort(position + 32) & 0xFFFF;
+			byte[] name = new byte[nameLength];
+			directory.position(position + 46);
+			directory.get(name);
+
+			Entry entry = new Entry(channel, name);
+			entry.flags = directory.getShort(position + 8) & UTF8_FLAG;
+			entry.method = directory.getShort(position + 10);
+			entry.time = directory.getInt(position + 12);
+			entry.crc = directory.getInt(position + 16);
+			entry.compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+			entry.size = directory.getInt(position + 24);
+			entry.localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+			entries.add(entry);
+
+			position += 46 + nameLength + extraLength + commentLength;
+		}
+
+		return entries;
+	}
+
+	private static void write(Iterable<Entry> entries, FileChannel out) throws IOException {
+		ByteBuffer directory = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		int count = 0;
+
+		for (Entry entry : entries) {
+			// The data follows the local header, whose name and extra field may differ in length from the central directory
+			ByteBuffer sourceHeader = read(entry.channel, entry.localHeaderOffset, 30);
+
+			if (sourceHeader.getInt(0) != LOCAL_HEADER) {
+				throw new ZipException("Invalid local header for " + entry.name);
+			}
+
+			long dataOffset = entry.localHeaderOffset + 30 + (sourceHeader.getShort(26) & 0xFFFF) + (sourceHeader.getShort(28) & 0xFFFF);
+			long offset = out.position();
+
+			if (offset > 0xFFFFFFFFL) {
+				throw new ZipException("Merged zip is too large without zip64 support");
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(30 + entry.nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(LOCAL_HEADER);
+			putCommonFields(header, entry);
+			header.putShort((short) 0); // Extra field length
+			header.put(entry.nameBytes);
+			header.flip();
+			writeFully(out, header);
+
+			long copied = 0;
+
+			while (copied < entry.compressedSize) {
+				copied += entry.channel.transferTo(dataOffset + copied, entry.compressedSize - copied, out);
+			}
+
+			if (directory.remaining() < 46 + entry.nameBytes.length) {
+				ByteBuffer larger = ByteBuffer.allocate(directory.capacity() * 2 + entry.nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+				directory.flip();
+				directory = larger.put(directory);
+			}
+
+			directory.putInt(CENTRAL_HEADER);
+			directory.putShort((short) 20); // Version made by
+			putCommonFields(directory, entry);
+			directory.putShort((short) 0); // Extra field length
+			directory.putShort((short) 0); // Comment length
+			directory.putShort((short) 0); // Disk number
+			directory.putShort((short) 0); // Internal attributes
+			directory.putInt(0); // External attributes
+			directory.putInt((int) offset);
+			directory.put(entry.nameBytes);
+			count++;
+		}
+
+		long directoryOffset = out.position();
+		directory.flip();
+		int directorySize = directory.remaining();
+		writeFully(out, directory);
+
+		if (directoryOffset > 0xFFFFFFFFL) {
+			throw new ZipException("Merged zip is too large without zip64 support");
+		}
+
+		ByteBuffer end = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		end.putInt(END_OF_CENTRAL_DIRECTORY);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) count);
+		end.putShort((short) count);
+		end.putInt(directorySize);
+		end.putInt((int) directoryOffset);
+		end.putShort((short) 0);
+		end.flip();
+		writeFully(out, end);
+	}
+
+	// The fields shared by local and central headers, from the version needed to the name length
+	private static void putCommonFields(ByteBuffer buffer, Entry entry) {
+		buffer.putShort((short) 20);
+		buffer.putShort((short) entry.flags);
+		buffer.putShort(entry.method);
+		buffer.putInt(entry.time);
+		buffer.putInt(entry.crc);
+		buffer.putInt((int) entry.compressedSize);
+		buffer.putInt(entry.size);
+		buffer.putShort((short) entry.nameBytes.length);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new ZipException("Unexpected end of zip file");
+			}
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	public static final class Source {
+		final Path path;
+		final Predicate<String> filter;
+
+		/**
+		 * @param filter tests the names of the entries to take from this source
+		 */
+		public Source(Path path, Predicate<String> filter) {
+			this.path = path;
+			this.filter = filter;
+		}
+	}
+
+	private static final class Entry {
+		final FileChannel channel;
+		final byte[] nameBytes;
+		final String name;
+		int flags;
+		short method;
+		int time;
+		int crc;
+		long compressedSize;
+		int size;
+		long localHeaderOffset;
+
+		Entry(FileChannel channel, byte[] nameBytes) {
+			this.channel = channel;
+			this.nameBytes = nameBytes;
+			this.name = new String(nameBytes, StandardCharsets.UTF_8);
+		}
+	}
+}
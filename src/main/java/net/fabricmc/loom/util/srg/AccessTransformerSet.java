@@ -0,0 +1,252 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2021 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.srg;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.gradle.api.logging.Logger;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * A set of Forge access transformers, parsed once and then applied to any number of classes.
+ *
+ * <p>Unlike Forge's {@code AccessTransformerEngine}, which is a global singleton, a set is immutable once parsed,
+ * so it can be applied from several threads and several sets can be in use at the same time. It follows the same
+ * rules: access is only ever widened, and when several lines target the same member the widest access wins.
+ */
+public final class AccessTransformerSet {
+	private static final int[] VISIBILITY_FLAGS = {Opcodes.ACC_PRIVATE, 0, Opcodes.ACC_PROTECTED, Opcodes.ACC_PUBLIC};
+	private static final String WILDCARD_FIELD = "*";
+	private static final String WILDCARD_METHOD = "*()";
+
+	private final Map<String, ClassTransforms> classes;
+
+	private AccessTransformerSet(Map<String, ClassTransforms> classes) {
+		this.classes = classes;
+	}
+
+	/**
+	 * Parses access transformer files.
+	 *
+	 * @param logger the logger for invalid lines
+	 * @param files  the contents of the files by their name, the names are only used in warnings
+	 */
+	public static AccessTransformerSet parse(Logger logger, Map<String, String> files) {
+		Map<String, ClassTransforms> classes = new HashMap<>();
+
+		for (Map.Entry<String, String> file : files.entrySet()) {
+			for (String line : file.getValue().split("\n")) {
+				int comment = line.indexOf('#');
+				String content = (comment >= 0 ? line.substring(0, comment) : line).trim();
+
+				if (content.isEmpty()) {
+					continue;
+				}
+
+				String[] parts = content.split("\\s+");
+				Change change = parts.length == 2 || parts.length == 3 ? Change.parse(parts[0]) : null;
+
+				if (change == null) {
+					logger.warn("Invalid AT Line in " + file.getKey() + ": " + line);
+					continue;
+				}
+
+				ClassTransforms transforms = classes.computeIfAbsent(parts[1].replace('.', '/'), name -> new ClassTransforms());
+
+				if (parts.length == 2) {
+					transforms.self = Change.merge(transforms.self, change);
+				} else if (parts[2].contains("(")) {
+					transforms.methods.merge(parts[2], change, Change::merge);
+				} else {
+					transforms.fields.merge(parts[2], change, Change::merge);
+				}
+			}
+		}
+
+		return new AccessTransformerSet(classes);
+	}
+
+	/**
+	 * @return the internal names of the classes that are targeted
+	 */
+	public Set<String> getClassNames() {
+		return Collections.unmodifiableSet(classes.keySet());
+	}
+
+	/**
+	 * Applies the transforms targeting a class to it.
+	 *
+	 * @return whether the class is targeted by any transforms
+	 */
+	public boolean apply(ClassNode node) {
+		ClassTransforms transforms = classes.get(node.name);
+
+		if (transforms == null) {
+			return false;
+		}
+
+		if (transforms.self != null) {
+			node.access = transforms.self.apply(node.access);
+
+			for (InnerClassNode innerClass : node.innerClasses) {
+				if (innerClass.name.equals(node.name)) {
+					innerClass.access = transforms.self.apply(innerClass.access);
+				}
+			}
+		}
+
+		Change allFields = transforms.fields.get(WILDCARD_FIELD);
+
+		for (FieldNode field : node.fields) {
+			Change change = Change.merge(transforms.fields.get(field.name), allFields);
+
+			if (change != null) {
+				field.access = change.apply(field.access);
+			}
+		}
+
+		Change allMethods = transforms.methods.get(WILDCARD_METHOD);
+		Set<String> unprivatized = new HashSet<>();
+
+		for (MethodNode method : node.methods) {
+			Change change = Change.merge(transforms.methods.get(method.name + method.desc), allMethods);
+
+			if (change == null || method.name.equals("<clinit>")) {
+				continue;
+			}
+
+			boolean wasPrivate = (method.access & Opcodes.ACC_PRIVATE) != 0;
+			method.access = change.apply(method.access);
+
+			if (wasPrivate && (method.access & Opcodes.ACC_PRIVATE) == 0 && (method.access & Opcodes.ACC_STATIC) == 0 && !method.name.equals("<init>")) {
+				unprivatized.add(method.name + method.desc);
+			}
+		}
+
+		// Private methods are called with invokespecial, which would skip overrides once they can have some
+		if (!unprivatized.isEmpty()) {
+			for (MethodNode method : node.methods) {
+				for (AbstractInsnNode insn : method.instructions) {
+					if (insn.getOpcode() == Opcodes.INVOKESPECIAL) {
+						MethodInsnNode methodInsn = (MethodInsnNode) insn;
+
+						if (methodInsn.owner.equals(node.name) && unprivatized.contains(methodInsn.name + methodInsn.desc)) {
+							methodInsn.setOpcode(Opcodes.INVOKEVIRTUAL);
+						}
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+
+	private static final class ClassTransforms {
+		Change self;
+		final Map<String, Change> fields = new HashMap<>();
+		final Map<String, Change> methods = new HashMap<>();
+	}
+
+	private static final class Change {
+		// Index into VISIBILITY_FLAGS, higher is wider
+		final int visibility;
+		// 1 to make final, -1 to remove final, 0 to leave it
+		final int finality;
+
+		Change(int visibility, int finality) {
+			this.visibility = visibility;
+			this.finality = finality;
+		}
+
+		static Change parse(String modifier) {
+			int finality = 0;
+
+			if (modifier.endsWith("+f")) {
+				finality = 1;
+			} else if (modifier.endsWith("-f")) {
+				finality = -1;
+			}
+
+			switch (finality == 0 ? modifier : modifier.substring(0, modifier.length() - 2)) {
+			case "private":
+				return new Change(0, finality);
+			case "default":
+				return new Change(1, finality);
+			case "protected":
+				return new Change(2, finality);
+			case "public":
+				return new Change(3, finality);
+			default:
+				return null;
+			}
+		}
+
+		/**
+		 * Combines two changes to the same target, a change that leaves final alone keeps the other's and removing final wins over adding it.
+		 */
+		static Change merge(Change a, Change b) {
+			if (a == null || b == null) {
+				return a != null ? a : b;
+			}
+
+			int finality = a.finality == 0 || b.finality == 0 ? a.finality + b.finality : Math.min(a.finality, b.finality);
+			return new Change(Math.max(a.visibility, b.visibility), finality);
+		}
+
+		int apply(int access) {
+			int current;
+
+			if ((access & Opcodes.ACC_PUBLIC) != 0) {
+				current = 3;
+			} else if ((access & Opcodes.ACC_PROTECTED) != 0) {
+				current = 2;
+			} else if ((access & Opcodes.ACC_PRIVATE) != 0) {
+				current = 0;
+			} else {
+				current = 1;
+			}
+
+			access = access & ~(Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE) | VISIBILITY_FLAGS[Math.max(current, visibility)];
+
+			if (finality > 0) {
+				access |= Opcodes.ACC_FINAL;
+			} else if (finality < 0) {
+				access &= ~Opcodes.ACC_FINAL;
+			}
+
+			return access;
+		}
+	}
+}
@@ -37,7 +37,6 @@ import org.zeroturnaround.zip.ZipUtil;
 import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
 import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
-import net.fabricmc.loom.util.function.CollectionUtil;
 import net.fabricmc.mapping.tree.TinyTree;
 
 /**
@@ -50,50 +49,56 @@ public final class AtRemapper {
 		ZipUtil.transformEntries(jar.toFile(), new ZipEntryTransformerEntry[]{(new ZipEntryTransformerEntry("META-INF/accesstransformer.cfg", new StringZipEntryTransformer() {
 			@Override
 			protected String transform(ZipEntry zipEntry, String input) {
-				String[] lines = input.split("\n");
-				List<String> output = new ArrayList<>(lines.length);
-
-				for (int i = 0; i < lines.length; i++) {
-					String line = lines[i].trim();
-
-					if (line.startsWith("#") || line.isEmpty() || line.chars().allMatch(Character::isWhitespace)) {
-						output.add(i, line);
-						continue;
-					}
-
-					String[] parts = line.split("\\s+");
-
-					if (parts.length < 2) {
-						logger.warn("Invalid AT Line: " + line);
-						output.add(i, line);
-						continue;
-					}
-
-					String name = parts[1].replace('.', '/');
-					parts[1] = CollectionUtil.find(
-							mappings.getClasses(),
-							def -> def.getName("srg").equals(name)
-					).map(def -> def.getName(targetNamespace)).orElse(name).replace('/', '.');
-
-					if (parts.length >= 3) {
-						if (parts[2].contains("(")) {
-							parts[2] = parts[2].substring(0, parts[2].indexOf('(')) + remapDescriptor(parts[2].substring(parts[2].indexOf('(')), s -> {
-								return CollectionUtil.find(
-										mappings.getClasses(),
-										def -> def.getName("srg").equals(s)
-								).map(def -> def.getName(targetNamespace)).orElse(s);
-							});
-						}
-					}
-
-					output.add(i, String.join(" ", parts));
-				}
-
-				return String.join("\n", output);
+				return remap(logger, input, mappings, targetNamespace);
 			}
 		}))});
 	}
 
+	/**
+	 * Remaps the contents of an AT file.
+	 *
+	 * @param logger          the logger for invalid lines
+	 * @param input           the AT file contents
+	 * @param mappings        the mappings
+	 * @param targetNamespace the namespace to remap to
+	 * @return the remapped AT file contents
+	 */
+	public static String remap(Logger logger, String input, TinyTree mappings, String targetNamespace) {
+		SrgClassIndex classIndex = SrgClassIndex.of(mappings, targetNamespace);
+		String[] lines = input.split("\n");
+		List<String> output = new ArrayList<>(lines.length);
+
+		for (int i = 0; i < lines.length; i++) {
+			String line = lines[i].trim();
+
+			if (line.startsWith("#") || line.isEmpty() || line.chars().allMatch(Character::isWhitespace)) {
+				output.add(i, line);
+				continue;
+			}
+
+			String[] parts = line.split("\\s+");
+
+			if (parts.length < 2) {
+				logger.warn("Invalid AT Line: " + line);
+				output.add(i, line);
+				continue;
+			}
+
+			String name = parts[1].replace('.', '/');
+			parts[1] = classIndex.apply(name).replace('/', '.');
+
+			if (parts.length >= 3) {
+				if (parts[2].contains("(")) {
+					parts[2] = parts[2].substring(0, parts[2].indexOf('(')) + remapDescriptor(parts[2].substring(parts[2].indexOf('(')), classIndex);
+				}
+			}
+
+			output.add(i, String.join(" ", parts));
+		}
+
+		return String.join("\n", output);
+	}
+
 	private static String remapDescriptor(String original, UnaryOperator<String> classMappings) {
 		try {
 			StringReader reader = new StringReader(original);
@@ -41,7 +41,6 @@ import com.google.gson.JsonObject;
 import org.gradle.api.logging.Logger;
 
 import net.fabricmc.loom.util.JarUtil;
-import net.fabricmc.loom.util.function.CollectionUtil;
 import net.fabricmc.mapping.tree.TinyTree;
 
 /**
@@ -61,14 +60,13 @@ public final class CoreModClassRemapper {
 				return;
 			}
 
-			JsonObject coremodsJson;
+			List<String> coreModFiles;
 
 			try (Reader reader = Files.newBufferedReader(coremodsJsonPath)) {
-				coremodsJson = new Gson().fromJson(reader, JsonObject.class);
+				coreModFiles = readCoreModFiles(reader);
 			}
 
-			for (Map.Entry<String, JsonElement> nameFileEntry : coremodsJson.entrySet()) {
-				String file = nameFileEntry.getValue().getAsString();
+			for (String file : coreModFiles) {
 				Path js = fs.getPath(file);
 
 				if (Files.exists(js)) {
@@ -81,9 +79,35 @@ public final class CoreModClassRemapper {
 		}
 	}
 
+	/**
+	 * Reads the coremod script paths from a {@code coremods.json} file.
+	 *
+	 * @param reader the reader for the {@code coremods.json} file
+	 * @return the paths of the coremod scripts in the jar
+	 */
+	public static List<String> readCoreModFiles(Reader reader) {
+		JsonObject coremodsJson = new Gson().fromJson(reader, JsonObject.class);
+		List<String> files = new ArrayList<>();
+
+		for (Map.Entry<String, JsonElement> nameFileEntry : coremodsJson.entrySet()) {
+			files.add(nameFileEntry.getValue().getAsString());
+		}
+
+		return files;
+	}
+
 	public static void remap(Path js, TinyTree mappings, String targetNamespace) throws IOException {
 		List<String> lines = Files.readAllLines(js);
+		List<String> output = remap(lines, mappings, targetNamespace);
+
+		if (!lines.equals(output)) {
+			JarUtil.write(js, output);
+		}
+	}
+
+	public static List<String> remap(List<String> lines, TinyTree mappings, String targetNamespace) {
 		List<String> output = new ArrayList<>(lines);
+		SrgClassIndex classIndex = SrgClassIndex.of(mappings, targetNamespace);
 
 		for (int i = 0; i < lines.size(); i++) {
 			String line = lines.get(i);
@@ -91,9 +115,7 @@ public final class CoreModClassRemapper {
 
 			if (matcher.matches()) {
 				String className = matcher.group(2).replace('.', '/');
-				String remapped = CollectionUtil.find(mappings.getClasses(), def -> def.getName("srg").equals(className))
-						.map(def -> def.getName(targetNamespace))
-						.orElse(className);
+				String remapped = classIndex.apply(className);
 
 				if (!className.equals(remapped)) {
 					output.set(i, matcher.group(1) + remapped.replace('/', '.') + matcher.group(3));
@@ -101,8 +123,6 @@ public final class CoreModClassRemapper {
 			}
 		}
 
-		if (!lines.equals(output)) {
-			JarUtil.write(js, output);
-		}
+		return output;
 	}
 }
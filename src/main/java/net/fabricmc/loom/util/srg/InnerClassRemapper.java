@@ -26,10 +26,11 @@ package net.fabricmc.loom.util.srg;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
@@ -41,39 +42,54 @@ import net.fabricmc.tinyremapper.IMappingProvider;
 
 public class InnerClassRemapper {
 	public static IMappingProvider of(Path fromJar, TinyTree mappingsWithSrg, String from, String to) throws IOException {
+		return of(readInnerClasses(fromJar), mappingsWithSrg, from, to);
+	}
+
+	/**
+	 * Creates a mapping provider for inner classes that have been collected beforehand
+	 * with {@link #readInnerClasses(Path)}, so that the jar can be scanned once for multiple targets.
+	 */
+	public static IMappingProvider of(Set<String> innerClasses, TinyTree mappingsWithSrg, String from, String to) {
 		return sink -> {
-			remapInnerClass(fromJar, mappingsWithSrg, from, to, sink::acceptClass);
+			remapInnerClass(innerClasses, mappingsWithSrg, from, to, sink::acceptClass);
 		};
 	}
 
-	private static void remapInnerClass(Path fromJar, TinyTree mappingsWithSrg, String from, String to, BiConsumer<String, String> action) {
+	public static Set<String> readInnerClasses(Path fromJar) throws IOException {
+		Set<String> innerClasses = new HashSet<>();
+
 		try (InputStream inputStream = Files.newInputStream(fromJar)) {
-			Map<String, String> availableClasses = mappingsWithSrg.getClasses().stream()
-					.collect(Collectors.groupingBy(classDef -> classDef.getName(from),
-							Collectors.<ClassDef, String>reducing(
-									null,
-									classDef -> classDef.getName(to),
-									(first, last) -> last
-							))
-					);
 			ZipUtil.iterate(inputStream, (in, zipEntry) -> {
 				if (!zipEntry.isDirectory() && zipEntry.getName().contains("$") && zipEntry.getName().endsWith(".class")) {
-					String className = zipEntry.getName().substring(0, zipEntry.getName().length() - 6);
+					innerClasses.add(zipEntry.getName().substring(0, zipEntry.getName().length() - 6));
+				}
+			});
+		}
+
+		return innerClasses;
+	}
 
-					if (!availableClasses.containsKey(className)) {
-						String parentName = className.substring(0, className.indexOf('$'));
-						String childName = className.substring(className.indexOf('$') + 1);
-						String remappedParentName = availableClasses.getOrDefault(parentName, parentName);
-						String remappedName = remappedParentName + "$" + childName;
+	private static void remapInnerClass(Set<String> innerClasses, TinyTree mappingsWithSrg, String from, String to, BiConsumer<String, String> action) {
+		Map<String, String> availableClasses = mappingsWithSrg.getClasses().stream()
+				.collect(Collectors.groupingBy(classDef -> classDef.getName(from),
+						Collectors.<ClassDef, String>reducing(
+								null,
+								classDef -> classDef.getName(to),
+								(first, last) -> last
+						))
+				);
 
-						if (!className.equals(remappedName)) {
-							action.accept(className, remappedName);
-						}
-					}
+		for (String className : innerClasses) {
+			if (!availableClasses.containsKey(className)) {
+				String parentName = className.substring(0, className.indexOf('$'));
+				String childName = className.substring(className.indexOf('$') + 1);
+				String remappedParentName = availableClasses.getOrDefault(parentName, parentName);
+				String remappedName = remappedParentName + "$" + childName;
+
+				if (!className.equals(remappedName)) {
+					action.accept(className, remappedName);
 				}
-			});
-		} catch (IOException e) {
-			throw new UncheckedIOException(e);
+			}
 		}
 	}
 }
@@ -25,86 +25,110 @@
 package net.fabricmc.loom.util.srg;
 
 import java.io.File;
-import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
 import java.util.Set;
-import java.util.jar.JarOutputStream;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
-import org.apache.commons.io.IOUtils;
+import com.google.common.io.ByteStreams;
 import org.gradle.api.Project;
-import org.zeroturnaround.zip.ZipUtil;
-
-import net.fabricmc.loom.LoomGradleExtension;
-import net.fabricmc.loom.configuration.providers.mappings.MappingsProvider;
 
+/**
+ * Remaps the official Minecraft jars to srg with SpecialSource, like MCPConfig does.
+ *
+ * <p>SpecialSource runs in this JVM, but in a class loader of its own that only sees the SpecialSource jar.
+ * Running it on the plugin's class path mixes in other versions of its dependencies (ASM in particular),
+ * which changes its output; isolated, it produces the same jars as a forked JVM. Every call gets a fresh class
+ * loader, so several sides can be remapped at the same time without sharing SpecialSource's static state.
+ */
 public class SpecialSourceExecutor {
-	public static Path produceSrgJar(Project project, MappingsProvider provider, String side, File specialSourceJar, Path officialJar, Path srgPath) throws Exception {
+	private static final String MAIN_CLASS = "net.md_5.specialsource.SpecialSource";
+
+	/**
+	 * @param output where to write the srg jar, it is written next to it first and moved in place when complete
+	 */
+	public static void produceSrgJar(Project project, String side, File specialSourceJar, Path officialJar, Path srgPath, Path output) throws Exception {
 		Set<String> filter = Files.readAllLines(srgPath, StandardCharsets.UTF_8).stream()
 				.filter(s -> !s.startsWith("\t"))
 				.map(s -> s.split(" ")[0] + ".class")
 				.collect(Collectors.toSet());
-		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
-		Path stripped = extension.getProjectBuildCache().toPath().resolve(officialJar.getFileName().toString().substring(0, officialJar.getFileName().toString().length() - 4) + "-filtered.jar");
-		Files.deleteIfExists(stripped);
-
-		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(stripped))) {
-			ZipUtil.iterate(officialJar.toFile(), (in, zipEntry) -> {
-				if (filter.contains(zipEntry.getName())) {
-					output.putNextEntry((ZipEntry) zipEntry.clone());
-					IOUtils.write(IOUtils.toByteArray(in), output);
-					output.closeEntry();
-				}
-			});
-		}
-
-		Path output = extension.getProjectBuildCache().toPath().resolve(officialJar.getFileName().toString().substring(0, officialJar.getFileName().toString().length() - 4) + "-srg-output.jar");
-		Files.deleteIfExists(output);
 
-		String[] args = new String[]{
-				"--in-jar",
-				stripped.toAbsolutePath().toString(),
-				"--out-jar",
-				output.toAbsolutePath().toString(),
-				"--srg-in",
-				srgPath.toAbsolutePath().toString()
-		};
+		// Only the classes in the mappings are remapped, the server jar also contains its libraries
+		Path stripped = Files.createTempFile("loom-" + side + "-filtered", ".jar");
+		Path tmpOutput = output.resolveSibling(output.getFileName() + ".tmp");
 
-		project.getLogger().lifecycle(":remapping minecraft (SpecialSource, " + side + ", official -> srg)");
+		try {
+			try (ZipFile zip = new ZipFile(officialJar.toFile()); OutputStream os = Files.newOutputStream(stripped); ZipOutputStream zos = new ZipOutputStream(os)) {
+				Enumeration<? extends ZipEntry> entries = zip.entries();
 
-		Path workingDir = tmpDir();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
 
-		project.javaexec(spec -> {
-			spec.setArgs(Arrays.asList(args));
-			spec.setClasspath(project.files(specialSourceJar));
-			spec.workingDir(workingDir.toFile());
-			spec.setMain("net.md_5.specialsource.SpecialSource");
-			spec.setStandardOutput(System.out);
-			spec.setErrorOutput(System.out);
-		}).rethrowFailure().assertNormalExitValue();
+					if (filter.contains(entry.getName())) {
+						// Not a copy of the entry, its compressed size would no longer match after deflating again
+						ZipEntry copy = new ZipEntry(entry.getName());
+						copy.setTime(entry.getTime());
+						zos.putNextEntry(copy);
 
-		// TODO: Figure out why doing this produces a different result? Possible different class path?
-		// SpecialSource.main(args);
+						try (InputStream is = zip.getInputStream(entry)) {
+							ByteStreams.copy(is, zos);
+						}
 
-		Files.deleteIfExists(stripped);
-
-		Path tmp = tmpFile();
-		Files.deleteIfExists(tmp);
-		Files.copy(output, tmp);
-
-		Files.deleteIfExists(output);
-		return tmp;
-	}
-
-	private static Path tmpFile() throws IOException {
-		return Files.createTempFile(null, null);
+						zos.closeEntry();
+					}
+				}
+			}
+
+			Files.deleteIfExists(tmpOutput);
+
+			String[] args = new String[]{
+					"--in-jar",
+					stripped.toAbsolutePath().toString(),
+					"--out-jar",
+					tmpOutput.toAbsolutePath().toString(),
+					"--srg-in",
+					srgPath.toAbsolutePath().toString()
+			};
+
+			project.getLogger().lifecycle(":remapping minecraft (SpecialSource, " + side + ", official -> srg)");
+			runSpecialSource(specialSourceJar, args);
+
+			Files.move(tmpOutput, output, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(stripped);
+			Files.deleteIfExists(tmpOutput);
+		}
 	}
 
-	private static Path tmpDir() throws IOException {
-		return Files.createTempDirectory(null);
+	private static void runSpecialSource(File specialSourceJar, String[] args) throws Exception {
+		Thread thread = Thread.currentThread();
+		ClassLoader contextLoader = thread.getContextClassLoader();
+
+		// No parent apart from the bootstrap loader, so nothing from the plugin's class path leaks in
+		try (URLClassLoader loader = new URLClassLoader(new URL[] {specialSourceJar.toURI().toURL()}, null)) {
+			thread.setContextClassLoader(loader);
+			Method main = Class.forName(MAIN_CLASS, true, loader).getMethod("main", String[].class);
+			main.invoke(null, (Object) args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+
+			throw e;
+		} finally {
+			thread.setContextClassLoader(contextLoader);
+		}
 	}
 }
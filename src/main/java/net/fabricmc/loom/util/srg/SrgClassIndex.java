@@ -0,0 +1,74 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.srg;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.UnaryOperator;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * A lookup table from SRG class names to another namespace.
+ *
+ * <p>Indices are cached per mapping tree and target namespace,
+ * so remapping many files with the same mappings only builds the table once.
+ */
+public final class SrgClassIndex implements UnaryOperator<String> {
+	private static final Map<TinyTree, Map<String, SrgClassIndex>> CACHE = new WeakHashMap<>();
+
+	private final Map<String, String> classes = new HashMap<>();
+
+	private SrgClassIndex(TinyTree mappings, String targetNamespace) {
+		for (ClassDef def : mappings.getClasses()) {
+			classes.putIfAbsent(def.getName("srg"), def.getName(targetNamespace));
+		}
+	}
+
+	/**
+	 * Gets the index of the mapping tree for the target namespace.
+	 *
+	 * @param mappings        the mappings, must contain the 'srg' namespace
+	 * @param targetNamespace the namespace to map to
+	 * @return the index
+	 */
+	public static synchronized SrgClassIndex of(TinyTree mappings, String targetNamespace) {
+		return CACHE.computeIfAbsent(mappings, m -> new HashMap<>())
+				.computeIfAbsent(targetNamespace, namespace -> new SrgClassIndex(mappings, namespace));
+	}
+
+	/**
+	 * Maps an SRG class name to the target namespace.
+	 *
+	 * @param name the internal SRG name
+	 * @return the mapped name, or the input name if it doesn't have mappings
+	 */
+	@Override
+	public String apply(String name) {
+		return classes.getOrDefault(name, name);
+	}
+}
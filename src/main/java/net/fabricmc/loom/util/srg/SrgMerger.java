@@ -24,13 +24,14 @@
 
 package net.fabricmc.loom.util.srg;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -43,11 +44,12 @@ import org.cadixdev.lorenz.model.MethodMapping;
 import org.cadixdev.lorenz.model.TopLevelClassMapping;
 import org.jetbrains.annotations.Nullable;
 
+import net.fabricmc.loom.configuration.providers.mappings.MappingsCache;
+import net.fabricmc.loom.util.ThreadingUtils;
 import net.fabricmc.loom.util.function.CollectionUtil;
 import net.fabricmc.mapping.tree.ClassDef;
 import net.fabricmc.mapping.tree.FieldDef;
 import net.fabricmc.mapping.tree.MethodDef;
-import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.stitch.commands.tinyv2.TinyClass;
 import net.fabricmc.stitch.commands.tinyv2.TinyField;
@@ -75,16 +77,12 @@ public final class SrgMerger {
 	 */
 	public static void mergeSrg(Path srg, Path tiny, Path out, boolean lenient) throws IOException, MappingException {
 		MappingSet arr;
-		TinyTree foss;
+		TinyTree foss = MappingsCache.INSTANCE.get(tiny);
 
 		try (TSrgReader reader = new TSrgReader(Files.newBufferedReader(srg))) {
 			arr = reader.read();
 		}
 
-		try (BufferedReader reader = Files.newBufferedReader(tiny)) {
-			foss = TinyMappingFactory.loadWithDetection(reader);
-		}
-
 		List<String> namespaces = new ArrayList<>(foss.getMetadata().getNamespaces());
 		namespaces.add(1, "srg");
 
@@ -95,9 +93,16 @@ public final class SrgMerger {
 		TinyHeader header = new TinyHeader(namespaces, 2, 0, Collections.emptyMap());
 
 		List<TinyClass> classes = new ArrayList<>();
-
-		for (TopLevelClassMapping klass : arr.getTopLevelClassMappings()) {
-			classToTiny(foss, namespaces, klass, classes::add, lenient);
+		List<TopLevelClassMapping> topLevelClasses = new ArrayList<>(arr.getTopLevelClassMappings());
+		// Top-level classes are independent of each other, and ThreadingUtils.get keeps the input order
+		List<List<TinyClass>> classesPerTopLevel = ThreadingUtils.get(topLevelClasses, klass -> {
+			List<TinyClass> result = new ArrayList<>();
+			classToTiny(foss, namespaces, klass, result::add, lenient);
+			return result;
+		});
+
+		for (List<TinyClass> classesOfTopLevel : classesPerTopLevel) {
+			classes.addAll(classesOfTopLevel);
 		}
 
 		TinyFile file = new TinyFile(header, classes);
@@ -124,14 +129,24 @@ public final class SrgMerger {
 
 		List<TinyMethod> methods = new ArrayList<>();
 		List<TinyField> fields = new ArrayList<>();
+		Map<String, MethodDef> methodDefs = new HashMap<>();
+		Map<String, FieldDef> fieldDefs = new HashMap<>();
+
+		for (MethodDef def : classDef.getMethods()) {
+			methodDefs.putIfAbsent(def.getName("official") + def.getDescriptor("official"), def);
+		}
+
+		for (FieldDef def : classDef.getFields()) {
+			fieldDefs.putIfAbsent(def.getName("official"), def);
+		}
 
 		for (MethodMapping method : klass.getMethodMappings()) {
-			MethodDef def = CollectionUtil.find(
-					classDef.getMethods(),
-					m -> m.getName("official").equals(method.getObfuscatedName()) && m.getDescriptor("official").equals(method.getObfuscatedDescriptor())
-			).orElse(nullOrThrow(lenient, () -> new MappingException("Missing method: " + method.getFullObfuscatedName() + " (srg: " + method.getFullDeobfuscatedName() + ")")));
+			MethodDef def = methodDefs.get(method.getObfuscatedName() + method.getObfuscatedDescriptor());
 
-			if (def == null) continue;
+			if (def == null) {
+				nullOrThrow(lenient, () -> new MappingException("Missing method: " + method.getFullObfuscatedName() + " (srg: " + method.getFullDeobfuscatedName() + ")"));
+				continue;
+			}
 
 			List<String> methodNames = CollectionUtil.map(
 					namespaces,
@@ -147,12 +162,12 @@ public final class SrgMerger {
 		}
 
 		for (FieldMapping field : klass.getFieldMappings()) {
-			FieldDef def = CollectionUtil.find(
-					classDef.getFields(),
-					f -> f.getName("official").equals(field.getObfuscatedName())
-			).orElse(nullOrThrow(lenient, () -> new MappingException("Missing field: " + field.getFullObfuscatedName() + " (srg: " + field.getFullDeobfuscatedName() + ")")));
+			FieldDef def = fieldDefs.get(field.getObfuscatedName());
 
-			if (def == null) continue;
+			if (def == null) {
+				nullOrThrow(lenient, () -> new MappingException("Missing field: " + field.getFullObfuscatedName() + " (srg: " + field.getFullDeobfuscatedName() + ")"));
+				continue;
+			}
 
 			List<String> fieldNames = CollectionUtil.map(
 					namespaces,
@@ -0,0 +1,66 @@
+package net.fabricmc.loom
+
+import org.gradle.testkit.runner.GradleRunner
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import static net.fabricmc.loom.BuildUtils.*
+import static org.gradle.testkit.runner.TaskOutcome.SUCCESS
+
+class IncrementalRemapFunctionalTest extends Specification {
+	@Rule
+	TemporaryFolder testProjectDir = new TemporaryFolder()
+	File settingsFile
+	File buildFile
+	File propsFile
+	File modJsonFile
+	File modExampleFile
+
+	def setup() {
+		settingsFile = testProjectDir.newFile('settings.gradle')
+		buildFile = testProjectDir.newFile('build.gradle')
+		propsFile = testProjectDir.newFile('gradle.properties')
+
+		testProjectDir.newFolder("src", "main", "resources")
+		modJsonFile = testProjectDir.newFile('src/main/resources/fabric.mod.json')
+
+		testProjectDir.newFolder("src", "main", "java", "net", "fabricmc", "example")
+		modExampleFile = testProjectDir.newFile("src/main/java/net/fabricmc/example/ExampleMod.java")
+	}
+
+	def "an unchanged incremental remap reuses every class"() {
+		given:
+		settingsFile << genSettingsFile("incremental-remap-functional-test")
+		propsFile << genPropsFile('1.16.2', '1.16.2+build.26:v2', '0.9.2+build.206', '0.19.0+build.398-1.16')
+		buildFile << genBuildFile()
+		buildFile << '''
+			remapJar {
+				incremental.set(true)
+			}
+		'''
+		modJsonFile << genModJsonFile()
+		modExampleFile << genModJavaFile()
+
+		when:
+		def first = runner('remapJar', '--stacktrace').build()
+		// Deleting the output makes the task run again, the incremental state in its temporary directory stays
+		def second = runner('cleanRemapJar', 'remapJar', '--info', '--stacktrace').build()
+		def counts = second.output =~ /:incremental remap: (\d+) changed, (\d+) reused/
+
+		then:
+		first.task(":remapJar").outcome == SUCCESS
+		second.task(":remapJar").outcome == SUCCESS
+		counts.find()
+		counts.group(1) == '0'
+		counts.group(2).toInteger() > 0
+	}
+
+	private GradleRunner runner(String... arguments) {
+		return GradleRunner.create()
+				.withProjectDir(testProjectDir.root)
+				.withArguments(arguments)
+				.withPluginClasspath()
+				.forwardOutput()
+	}
+}
@@ -0,0 +1,165 @@
+package net.fabricmc.loom.util
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.jar.JarInputStream
+import java.util.jar.Manifest
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class ZipMergerTest extends Specification {
+	@Rule
+	TemporaryFolder tempDir = new TemporaryFolder()
+
+	def "entries keep their first position and take the contents of the last source"() {
+		given:
+		// ZipOutputStream writes deflated entries with a data descriptor, so their sizes are only in the central directory
+		def deflated = zip('deflated.jar', ZipEntry.DEFLATED, [
+				'a.txt': 'a from deflated',
+				'shared.txt': 'shared from deflated',
+				'ünïcode.txt': 'unicode from deflated'
+		])
+		def stored = zip('stored.jar', ZipEntry.STORED, [
+				'b.txt': 'b from stored',
+				'shared.txt': 'shared from stored'
+		])
+		def filtered = zip('filtered.jar', ZipEntry.DEFLATED, [
+				'a.txt': 'a from filtered',
+				'c.txt': 'c from filtered',
+				'skipped.txt': 'skipped from filtered'
+		])
+		def output = tempDir.root.toPath().resolve('merged.jar')
+
+		def expected = [
+				['a.txt', 'a from filtered', ZipEntry.DEFLATED],
+				['shared.txt', 'shared from stored', ZipEntry.STORED],
+				['ünïcode.txt', 'unicode from deflated', ZipEntry.DEFLATED],
+				['b.txt', 'b from stored', ZipEntry.STORED],
+				['c.txt', 'c from filtered', ZipEntry.DEFLATED]
+		]
+
+		when:
+		ZipMerger.merge(output,
+				new ZipMerger.Source(deflated, { true }),
+				new ZipMerger.Source(stored, { true }),
+				new ZipMerger.Source(filtered, { it != 'skipped.txt' }))
+
+		then:
+		readZipFile(output) == expected
+		readJarStream(output) == expected
+		!Files.exists(tempDir.root.toPath().resolve('merged.jar.tmp'))
+	}
+
+	def "the manifest of the first source stays readable"() {
+		given:
+		def manifest = new Manifest()
+		manifest.mainAttributes.putValue('Manifest-Version', '1.0')
+		manifest.mainAttributes.putValue('Main-Class', 'net.minecraft.client.main.Main')
+		def bytes = new ByteArrayOutputStream()
+		manifest.write(bytes)
+
+		def client = zip('client.jar', ZipEntry.DEFLATED, [
+				'META-INF/MANIFEST.MF': bytes.toString(StandardCharsets.UTF_8.name()),
+				'net/minecraft/client/main/Main.class': 'client main'
+		])
+		def server = zip('server.jar', ZipEntry.STORED, [
+				'META-INF/MANIFEST.MF': 'Manifest-Version: 1.0\r\n\r\n',
+				'net/minecraft/server/Main.class': 'server main'
+		])
+		def output = tempDir.root.toPath().resolve('merged.jar')
+
+		when:
+		ZipMerger.merge(output,
+				new ZipMerger.Source(client, { true }),
+				new ZipMerger.Source(server, { !it.startsWith('META-INF/') }))
+		def stream = new JarInputStream(Files.newInputStream(output))
+
+		then:
+		stream.manifest.mainAttributes.getValue('Main-Class') == 'net.minecraft.client.main.Main'
+		stream.nextJarEntry.name == 'net/minecraft/client/main/Main.class'
+		stream.nextJarEntry.name == 'net/minecraft/server/Main.class'
+		stream.nextJarEntry == null
+
+		cleanup:
+		stream?.close()
+	}
+
+	private Path zip(String name, int method, Map<String, String> entries) {
+		def path = tempDir.root.toPath().resolve(name)
+
+		new ZipOutputStream(Files.newOutputStream(path)).withCloseable { zos ->
+			entries.each { entryName, contents ->
+				def bytes = contents.getBytes(StandardCharsets.UTF_8)
+				def entry = new ZipEntry(entryName)
+				entry.method = method
+
+				if (method == ZipEntry.STORED) {
+					def crc = new CRC32()
+					crc.update(bytes)
+					entry.size = bytes.length
+					entry.compressedSize = bytes.length
+					entry.crc = crc.value
+				}
+
+				zos.putNextEntry(entry)
+				zos.write(bytes)
+				zos.closeEntry()
+			}
+		}
+
+		return path
+	}
+
+	/**
+	 * @return the name, contents and compression method of every entry, in the order of the central directory
+	 */
+	private static List<List<Object>> readZipFile(Path path) {
+		def contents = []
+
+		new ZipFile(path.toFile()).withCloseable { zip ->
+			zip.entries().each { entry ->
+				contents << [entry.name, readEntry(zip.getInputStream(entry)), entry.method]
+			}
+		}
+
+		return contents
+	}
+
+	/**
+	 * @return the name, contents and compression method of every entry, in the order of the local headers,
+	 * which can only be read like this if they have the right sizes
+	 */
+	private static List<List<Object>> readJarStream(Path path) {
+		def contents = []
+
+		new JarInputStream(Files.newInputStream(path)).withCloseable { stream ->
+			def entry
+
+			while ((entry = stream.nextJarEntry) != null) {
+				contents << [entry.name, readEntry(stream), entry.method]
+			}
+		}
+
+		return contents
+	}
+
+	// Doesn't close the stream, a JarInputStream moves on to the next entry instead
+	private static String readEntry(InputStream stream) {
+		def bytes = new ByteArrayOutputStream()
+		def buffer = new byte[1024]
+		int read
+
+		while ((read = stream.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, read)
+		}
+
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8)
+	}
+}
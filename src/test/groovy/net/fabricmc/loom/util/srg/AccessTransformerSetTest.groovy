@@ -0,0 +1,204 @@
+package net.fabricmc.loom.util.srg
+
+import org.gradle.api.logging.Logger
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.FieldNode
+import org.objectweb.asm.tree.InnerClassNode
+import org.objectweb.asm.tree.InsnNode
+import org.objectweb.asm.tree.MethodInsnNode
+import org.objectweb.asm.tree.MethodNode
+import org.objectweb.asm.tree.VarInsnNode
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class AccessTransformerSetTest extends Specification {
+	Logger logger = Mock()
+
+	def "only targeted classes are transformed"() {
+		given:
+		def set = parse('''
+			# A comment on its own line
+			public net.minecraft.block.Block field_149767_g # Trailing comment
+			public net.minecraft.world.World$Inner
+		''')
+		def other = classNode('net/minecraft/item/Item')
+
+		when:
+		def applied = set.apply(other)
+
+		then:
+		set.getClassNames() == ['net/minecraft/block/Block', 'net/minecraft/world/World$Inner'] as Set
+		!applied
+		0 * logger.warn(_)
+	}
+
+	def "invalid lines are skipped with a warning"() {
+		when:
+		def set = parse('''
+			public-ish net.minecraft.block.Block field_149767_g
+			public
+			public net.minecraft.block.Block field_149767_g
+		''')
+
+		then:
+		2 * logger.warn({ it.startsWith('Invalid AT Line in accesstransformer.cfg') })
+		set.getClassNames() == ['net/minecraft/block/Block'] as Set
+	}
+
+	@Unroll
+	def "widest access wins: #lines on #original"() {
+		given:
+		def set = parse(lines.collect { "${it} net.minecraft.block.Block field_149767_g" }.join('\n'))
+		def node = classNode('net/minecraft/block/Block')
+		node.fields.add(new FieldNode(original, 'field_149767_g', 'I', null, null))
+
+		when:
+		set.apply(node)
+
+		then:
+		node.fields[0].access == expected
+
+		where:
+		lines                    | original              | expected
+		['public']               | Opcodes.ACC_PRIVATE   | Opcodes.ACC_PUBLIC
+		['protected', 'public']  | Opcodes.ACC_PRIVATE   | Opcodes.ACC_PUBLIC
+		['public', 'protected']  | Opcodes.ACC_PRIVATE   | Opcodes.ACC_PUBLIC
+		['default', 'protected'] | Opcodes.ACC_PRIVATE   | Opcodes.ACC_PROTECTED
+		['default']              | Opcodes.ACC_PRIVATE   | 0
+		['private']              | Opcodes.ACC_PROTECTED | Opcodes.ACC_PROTECTED
+		['default']              | Opcodes.ACC_PUBLIC    | Opcodes.ACC_PUBLIC
+		['public']               | Opcodes.ACC_STATIC    | Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC
+	}
+
+	@Unroll
+	def "final modifiers merge: #lines on #original"() {
+		given:
+		def set = parse(lines.collect { "${it} net.minecraft.block.Block field_149767_g" }.join('\n'))
+		def node = classNode('net/minecraft/block/Block')
+		node.fields.add(new FieldNode(original, 'field_149767_g', 'I', null, null))
+
+		when:
+		set.apply(node)
+
+		then:
+		node.fields[0].access == expected
+
+		where:
+		lines                     | original                                | expected
+		['public-f']              | Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL | Opcodes.ACC_PUBLIC
+		['public+f']              | Opcodes.ACC_PRIVATE                     | Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL
+		['public']                | Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL | Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL
+		['public+f', 'public-f']  | Opcodes.ACC_PRIVATE                     | Opcodes.ACC_PUBLIC
+		['public-f', 'public+f']  | Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL | Opcodes.ACC_PUBLIC
+		['protected-f', 'public'] | Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL | Opcodes.ACC_PUBLIC
+		['public', 'protected+f'] | Opcodes.ACC_PRIVATE                     | Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL
+	}
+
+	def "wildcards target every field or every method"() {
+		given:
+		def set = parse('''
+			protected net.minecraft.block.Block *
+			public net.minecraft.block.Block field_149767_g
+			public-f net.minecraft.block.Block *()
+		''')
+		def node = classNode('net/minecraft/block/Block')
+		node.fields.add(new FieldNode(Opcodes.ACC_PRIVATE, 'field_149767_g', 'I', null, null))
+		node.fields.add(new FieldNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, 'field_149768_d', 'I', null, null))
+		node.methods.add(new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, 'func_149656_h', '()I', null, null))
+		node.methods.add(new MethodNode(Opcodes.ACC_PRIVATE, '<init>', '()V', null, null))
+		node.methods.add(new MethodNode(Opcodes.ACC_STATIC, '<clinit>', '()V', null, null))
+
+		when:
+		set.apply(node)
+
+		then:
+		node.fields.find { it.name == 'field_149767_g' }.access == Opcodes.ACC_PUBLIC
+		node.fields.find { it.name == 'field_149768_d' }.access == (Opcodes.ACC_PROTECTED | Opcodes.ACC_FINAL)
+		node.methods.find { it.name == 'func_149656_h' }.access == Opcodes.ACC_PUBLIC
+		node.methods.find { it.name == '<init>' }.access == Opcodes.ACC_PUBLIC
+		node.methods.find { it.name == '<clinit>' }.access == Opcodes.ACC_STATIC
+	}
+
+	def "methods are matched by name and descriptor"() {
+		given:
+		def set = parse('public net.minecraft.block.Block func_149656_h(I)I')
+		def node = classNode('net/minecraft/block/Block')
+		node.methods.add(new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, 'func_149656_h', '(I)I', null, null))
+		node.methods.add(new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, 'func_149656_h', '()I', null, null))
+
+		when:
+		set.apply(node)
+
+		then:
+		node.methods[0].access == (Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC)
+		node.methods[1].access == (Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC)
+	}
+
+	def "inner classes change their own inner class attribute too"() {
+		given:
+		def set = parse('public-f net.minecraft.world.World$Inner')
+		def node = classNode('net/minecraft/world/World$Inner', Opcodes.ACC_FINAL | Opcodes.ACC_SUPER)
+		node.innerClasses.add(new InnerClassNode('net/minecraft/world/World$Inner', 'net/minecraft/world/World', 'Inner', Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL))
+		node.innerClasses.add(new InnerClassNode('net/minecraft/world/World$Other', 'net/minecraft/world/World', 'Other', Opcodes.ACC_PRIVATE))
+
+		when:
+		def applied = set.apply(node)
+
+		then:
+		applied
+		node.access == (Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER)
+		node.innerClasses[0].access == (Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC)
+		node.innerClasses[1].access == Opcodes.ACC_PRIVATE
+	}
+
+	def "calls to methods that are no longer private become virtual"() {
+		given:
+		def set = parse('''
+			protected net.minecraft.block.Block func_149656_h()V
+			public net.minecraft.block.Block func_149657_c()V
+			public net.minecraft.block.Block <init>()V
+		''')
+		def node = classNode('net/minecraft/block/Block')
+		node.methods.add(new MethodNode(Opcodes.ACC_PRIVATE, 'func_149656_h', '()V', null, null))
+		node.methods.add(new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, 'func_149657_c', '()V', null, null))
+		node.methods.add(new MethodNode(Opcodes.ACC_PRIVATE, 'func_149658_d', '()V', null, null))
+		node.methods.add(new MethodNode(Opcodes.ACC_PRIVATE, '<init>', '()V', null, null))
+
+		def caller = new MethodNode(Opcodes.ACC_PUBLIC, 'func_149659_a', '()V', null, null)
+		caller.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0))
+		caller.instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, 'net/minecraft/block/Block', 'func_149656_h', '()V', false))
+		caller.instructions.add(new MethodInsnNode(Opcodes.INVOKESTATIC, 'net/minecraft/block/Block', 'func_149657_c', '()V', false))
+		caller.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0))
+		caller.instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, 'net/minecraft/block/Block', 'func_149658_d', '()V', false))
+		caller.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0))
+		caller.instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, 'net/minecraft/block/Block', '<init>', '()V', false))
+		caller.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0))
+		caller.instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, 'java/lang/Object', 'func_149656_h', '()V', false))
+		caller.instructions.add(new InsnNode(Opcodes.RETURN))
+		node.methods.add(caller)
+
+		when:
+		set.apply(node)
+		def calls = caller.instructions.findAll { it instanceof MethodInsnNode }.collect { "${it.opcode} ${it.owner}.${it.name}".toString() }
+
+		then:
+		calls == [
+				"${Opcodes.INVOKEVIRTUAL} net/minecraft/block/Block.func_149656_h",
+				"${Opcodes.INVOKESTATIC} net/minecraft/block/Block.func_149657_c",
+				"${Opcodes.INVOKESPECIAL} net/minecraft/block/Block.func_149658_d",
+				"${Opcodes.INVOKESPECIAL} net/minecraft/block/Block.<init>",
+				"${Opcodes.INVOKESPECIAL} java/lang/Object.func_149656_h"
+		]*.toString()
+	}
+
+	private AccessTransformerSet parse(String text) {
+		return AccessTransformerSet.parse(logger, ['accesstransformer.cfg': text.stripIndent()])
+	}
+
+	private static ClassNode classNode(String name, int access = Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER) {
+		def node = new ClassNode()
+		node.visit(Opcodes.V1_8, access, name, null, 'java/lang/Object', null)
+		return node
+	}
+}